@@ -0,0 +1,104 @@
+package com.example.InventoryComparer.controller;
+
+import com.example.InventoryComparer.service.AdmissionController;
+import com.example.InventoryComparer.service.AdmissionController.ReportType;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Admission control in front of the synchronous report endpoints. The request's memory cost is estimated from
+ * its Content-Length before the multipart body is parsed; requests that do not fit wait for budget, and when the
+ * queue is full they get 503 with Retry-After. The budget is held until the (possibly streamed) response is done.
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private static final Map<String, ReportType> GUARDED_ENDPOINTS = Map.of(
+            "/api/comparer/generate", ReportType.SKU,
+            "/price/generatePrice", ReportType.PRICE,
+            "/api/po-stock/generate", ReportType.PO_STOCK,
+            "/loyalty/generateLoyalty", ReportType.LOYALTY,
+            "/api/supplement-vault/generate", ReportType.SUPPLEMENT_VAULT);
+
+    private final AdmissionController admissionController;
+    private final int retryAfterSeconds;
+
+    public AdmissionFilter(AdmissionController admissionController,
+                           @Value("${comparer.admission.retryAfterSeconds:30}") int retryAfterSeconds) {
+        this.admissionController = admissionController;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equalsIgnoreCase(request.getMethod()) || reportType(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ReportType type = reportType(request);
+
+        AdmissionController.Permit permit;
+        try {
+            permit = admissionController.acquire(type, request.getContentLengthLong());
+        } catch (AdmissionController.AdmissionRejectedException e) {
+            System.out.println("Rejected " + type + " request: " + e.getMessage());
+            reject(response, e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reject(response, "Interrupted while waiting for report capacity");
+            return;
+        }
+
+        boolean releaseNow = true;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                // StreamingResponseBody: the workbook is still being written, keep the budget until it finishes
+                request.getAsyncContext().addListener(new ReleaseOnCompletion(permit));
+                releaseNow = false;
+            }
+        } finally {
+            if (releaseNow) permit.close();
+        }
+    }
+
+    private ReportType reportType(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return GUARDED_ENDPOINTS.get(path);
+    }
+
+    private void reject(HttpServletResponse response, String reason) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write("Server is busy generating other reports, please retry in "
+                + retryAfterSeconds + " seconds. (" + reason + ")");
+    }
+
+    private static class ReleaseOnCompletion implements AsyncListener {
+        private final AdmissionController.Permit permit;
+
+        ReleaseOnCompletion(AdmissionController.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override public void onComplete(AsyncEvent event) { permit.close(); }
+        @Override public void onTimeout(AsyncEvent event) { permit.close(); }
+        @Override public void onError(AsyncEvent event) { permit.close(); }
+        @Override public void onStartAsync(AsyncEvent event) { }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.InventoryComparer.controller;
+
+import com.example.InventoryComparer.logic.ParsedInputCache;
+import com.example.InventoryComparer.service.ReportResultCache;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/** Hit/miss counters and size of the parsed-input and report-result caches; DELETE empties them. */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api/cache")
+public class CacheStatsController {
+
+    private final ReportResultCache resultCache;
+
+    public CacheStatsController(ReportResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    @GetMapping("/inputs")
+    public ParsedInputCache.Stats inputCacheStats() {
+        return ParsedInputCache.stats();
+    }
+
+    @DeleteMapping("/inputs")
+    public ResponseEntity<Void> clearInputCache() {
+        ParsedInputCache.clear();
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/results")
+    public ReportResultCache.Stats resultCacheStats() {
+        return resultCache.stats();
+    }
+
+    @DeleteMapping("/results")
+    public ResponseEntity<Void> clearResultCache() {
+        resultCache.clear();
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -1,12 +1,15 @@
 package com.example.InventoryComparer.controller;
 //version 2
 import com.example.InventoryComparer.logic.LoyaltyComparerLogic;
-import org.springframework.core.io.InputStreamResource;
+import com.example.InventoryComparer.service.ReportResultCache;
+import com.example.InventoryComparer.service.UploadStagingService;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -17,8 +20,16 @@ import java.util.List;
 @RequestMapping("/loyalty")
 public class LoyaltyComparerController {
 
+    private final UploadStagingService stagingService;
+    private final ReportResultCache resultCache;
+
+    public LoyaltyComparerController(UploadStagingService stagingService, ReportResultCache resultCache) {
+        this.stagingService = stagingService;
+        this.resultCache = resultCache;
+    }
+
     @PostMapping("/generateLoyalty")
-    public ResponseEntity<InputStreamResource> generateLoyaltyReport(
+    public ResponseEntity<StreamingResponseBody> generateLoyaltyReport(
             @RequestParam("referenceFile") MultipartFile referenceFile,
             @RequestParam("locationsFiles") MultipartFile[] locationFiles) { // <--- FIXED
 
@@ -27,56 +38,69 @@ public class LoyaltyComparerController {
             return ResponseEntity.badRequest().build();
         }
 
-        // Convert reference file
+        // Per-request staging directory, so concurrent uploads never overwrite each other.
+        // It stays open until the report has been streamed to the client.
+        UploadStagingService.StagingArea staging;
+        try {
+            staging = stagingService.open("loyalty");
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+
+        // Stage reference file
         File refFile;
         try {
-            refFile = convertMultipartFileToFile(referenceFile);
+            refFile = staging.stage(referenceFile);
         } catch (IOException e) {
+            staging.close();
             return ResponseEntity.internalServerError().build();
         }
 
-        // Convert location files
+        // Stage location files
         List<File> locFiles = new ArrayList<>();
         for (MultipartFile mf : locationFiles) {
             try {
-                locFiles.add(convertMultipartFileToFile(mf));
+                locFiles.add(staging.stage(mf));
             } catch (IOException e) {
+                staging.close();
                 return ResponseEntity.internalServerError().build();
             }
         }
 
-        // Output file
-        File outputFile = new File(System.getProperty("java.io.tmpdir") + "/Loyalty_Comparison_Report.xlsx");
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=Loyalty_Comparison_Report.xlsx");
+        MediaType xlsx = MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
 
+        // Identical reference + location uploads: serve the stored report
+        String cacheKey;
         try {
-            LoyaltyComparerLogic.generateReport(refFile, locFiles, outputFile);
-        } catch (Exception e) {
-            e.printStackTrace();
+            cacheKey = ReportResultCache.key("loyalty")
+                    .input("reference", refFile, staging)
+                    .inputs("location", locFiles, staging)
+                    .build();
+        } catch (IOException e) {
+            staging.close();
             return ResponseEntity.internalServerError().build();
         }
+        InputStream cached = resultCache.lookup(cacheKey);
+        if (cached != null) {
+            staging.close();
+            return ResponseEntity.ok().headers(headers).contentType(xlsx).body(ReportResponses.stored(cached));
+        }
 
+        Workbook report;
         try {
-            InputStreamResource resource = new InputStreamResource(new FileInputStream(outputFile));
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=Loyalty_Comparison_Report.xlsx");
-
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentLength(outputFile.length())
-                    .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                    .body(resource);
-
-        } catch (FileNotFoundException e) {
+            report = LoyaltyComparerLogic.buildReport(refFile, locFiles);
+        } catch (Exception e) {
+            e.printStackTrace();
+            staging.close();
             return ResponseEntity.internalServerError().build();
         }
-    }
 
-    private File convertMultipartFileToFile(MultipartFile multipartFile) throws IOException {
-        File convFile = new File(System.getProperty("java.io.tmpdir") + "/" + multipartFile.getOriginalFilename());
-        try (FileOutputStream fos = new FileOutputStream(convFile)) {
-            fos.write(multipartFile.getBytes());
-        }
-        return convFile;
+        // Workbook is written straight into the response (no Content-Length: the size is only known while writing)
+        return ResponseEntity.ok()
+                .headers(headers)
+                .contentType(xlsx)
+                .body(ReportResponses.cachedWorkbook(report, resultCache, cacheKey, staging));
     }
 }
@@ -1,24 +1,36 @@
 package com.example.InventoryComparer.controller;
 
 import com.example.InventoryComparer.logic.POStockTallyLogic;
+import com.example.InventoryComparer.service.ReportResultCache;
+import com.example.InventoryComparer.service.UploadStagingService;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
 
 @CrossOrigin(origins = "http://localhost:3000")
 @RestController
 @RequestMapping("/api/po-stock")
 public class POStockTallyController {
 
+    private final UploadStagingService stagingService;
+    private final ReportResultCache resultCache;
+
+    public POStockTallyController(UploadStagingService stagingService, ReportResultCache resultCache) {
+        this.stagingService = stagingService;
+        this.resultCache = resultCache;
+    }
+
     @PostMapping("/generate")
-    public ResponseEntity<byte[]> generateReport(
+    public ResponseEntity<StreamingResponseBody> generateReport(
             @RequestParam("purchaseOrderFiles") List<MultipartFile> purchaseOrderFiles,
             @RequestParam("stockAdjustmentFiles") List<MultipartFile> stockAdjustmentFiles,
             @RequestParam(value = "excludeSAIds", required = false) List<String> excludeSAIds // NEW PARAMETER
@@ -44,90 +56,61 @@ public class POStockTallyController {
 
         List<File> poTempFiles = new ArrayList<>();
         List<File> stockTempFiles = new ArrayList<>();
-        File outputFile = null;
+
+        // Per-request staging directory: uploads keep their original names (shop/company names come from them).
+        // It stays open until the report has been streamed to the client.
+        UploadStagingService.StagingArea staging = null;
 
         try {
-            // Convert uploaded MultipartFiles to temporary Files
-            System.out.println("Converting multipart files to temporary files...");
+            staging = stagingService.open("po_stock");
+            // Stage uploaded MultipartFiles
+            System.out.println("Staging multipart files in " + staging.getDirectory().getAbsolutePath());
             for (MultipartFile mf : purchaseOrderFiles) {
-                File tempFile = convertMultipartToFile(mf);
+                File tempFile = staging.stage(mf);
                 poTempFiles.add(tempFile);
                 System.out.println("Created temp PO file: " + tempFile.getAbsolutePath() + " | Exists: " + tempFile.exists() + " | Size: " + tempFile.length());
             }
 
             for (MultipartFile mf : stockAdjustmentFiles) {
-                File tempFile = convertMultipartToFile(mf);
+                File tempFile = staging.stage(mf);
                 stockTempFiles.add(tempFile);
                 System.out.println("Created temp Stock file: " + tempFile.getAbsolutePath() + " | Exists: " + tempFile.exists() + " | Size: " + tempFile.length());
             }
 
-            // Temporary file for output
-            outputFile = File.createTempFile("PO_Stock_Tally_Report_", ".xlsx");
-            System.out.println("Output file: " + outputFile.getAbsolutePath());
-
-            // Call backend logic with excludeSAIds
-            System.out.println("Calling POStockTallyLogic.generateReport...");
-            POStockTallyLogic.generateReport(poTempFiles, stockTempFiles, outputFile, excludeSAIds);
-
-            // Check if output file was created
-            if (!outputFile.exists() || outputFile.length() == 0) {
-                System.out.println("ERROR: Output file was not created or is empty!");
-                return ResponseEntity.status(500)
-                        .body(("Error: Report generation failed - output file is empty").getBytes());
-            }
-
-            // Read the generated file into bytes
-            byte[] fileContent = Files.readAllBytes(outputFile.toPath());
-            System.out.println("Output file size: " + fileContent.length + " bytes");
-
             // Prepare response headers for download
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
             headers.setContentDispositionFormData("attachment", "PO_Stock_Tally_Report.xlsx");
 
+            // Same uploads + same exclusions (order does not matter): serve the stored report
+            String cacheKey = ReportResultCache.key("po_stock")
+                    .param("excludeSAIds", new TreeSet<>(excludeSAIds))
+                    .inputs("purchaseOrder", poTempFiles, staging)
+                    .inputs("stockAdjustment", stockTempFiles, staging)
+                    .build();
+            InputStream cached = resultCache.lookup(cacheKey);
+            if (cached != null) {
+                System.out.println("Serving PO-Stock report from result cache");
+                ReportResponses.closeQuietly(staging);
+                return ResponseEntity.ok().headers(headers).body(ReportResponses.stored(cached));
+            }
+
+            // Call backend logic with excludeSAIds
+            System.out.println("Calling POStockTallyLogic.buildReport...");
+            Workbook report = POStockTallyLogic.buildReport(poTempFiles, stockTempFiles, excludeSAIds);
+
+            // Workbook is written straight into the response; the staging area is removed after the last byte
             System.out.println("=== CONTROLLER COMPLETED SUCCESSFULLY ===");
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(fileContent);
+                    .body(ReportResponses.cachedWorkbook(report, resultCache, cacheKey, staging));
 
         } catch (Exception e) {
             System.out.println("ERROR in controller: " + e.getMessage());
             e.printStackTrace();
+            ReportResponses.closeQuietly(staging);
             return ResponseEntity.status(500)
-                    .body(("Error generating report: " + e.getMessage()).getBytes());
-        } finally {
-            // Cleanup all temporary files
-            System.out.println("Cleaning up temporary files...");
-            cleanupTempFiles(poTempFiles);
-            cleanupTempFiles(stockTempFiles);
-            if (outputFile != null && outputFile.exists()) {
-                System.out.println("Deleting output file: " + outputFile.getAbsolutePath());
-                outputFile.delete();
-            }
-        }
-    }
-
-    private File convertMultipartToFile(MultipartFile multipart) throws IOException {
-        String originalFilename = multipart.getOriginalFilename();
-        File convFile = new File(System.getProperty("java.io.tmpdir"), originalFilename);
-        System.out.println("Converting multipart to file: " + originalFilename + " -> " + convFile.getAbsolutePath());
-        try (FileOutputStream fos = new FileOutputStream(convFile)) {
-            fos.write(multipart.getBytes());
-        }
-        System.out.println("File conversion complete. Size: " + convFile.length() + " bytes");
-        return convFile;
-    }
-
-    private void cleanupTempFiles(List<File> files) {
-        for (File f : files) {
-            if (f != null && f.exists()) {
-                try {
-                    boolean deleted = f.delete();
-                    System.out.println("Cleanup: " + f.getName() + " deleted: " + deleted);
-                } catch (Exception e) {
-                    System.out.println("Cleanup failed for: " + f.getName() + " - " + e.getMessage());
-                }
-            }
+                    .body(ReportResponses.message("Error generating report: " + e.getMessage()));
         }
     }
 }
@@ -1,16 +1,20 @@
 package com.example.InventoryComparer.controller;
 
+import com.example.InventoryComparer.logic.ComparisonContext;
 import com.example.InventoryComparer.logic.PriceComparerLogic;
-import com.example.InventoryComparer.logic.FileProccessor;
+import com.example.InventoryComparer.service.ReportResultCache;
+import com.example.InventoryComparer.service.UploadStagingService;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -20,92 +24,80 @@ import java.util.Map;
 @RequestMapping("/price")
 public class PriceComparerController {
 
+    private final UploadStagingService stagingService;
+    private final ReportResultCache resultCache;
+
+    public PriceComparerController(UploadStagingService stagingService, ReportResultCache resultCache) {
+        this.stagingService = stagingService;
+        this.resultCache = resultCache;
+    }
+
     @PostMapping("/generatePrice")
-    public ResponseEntity<byte[]> generatePriceReport(
+    public ResponseEntity<StreamingResponseBody> generatePriceReport(
             @RequestParam("referenceFile") MultipartFile referenceFile,
             @RequestParam("locationFiles") MultipartFile[] locationFiles
     ) {
         // Map to track original file names for all files
         Map<File, String> originalFileNames = new HashMap<>();
 
+        // Per-request staging directory; request-scoped state: OGF preprocessing is always active for the price comparer.
+        // Both stay open until the report has been streamed to the client.
+        UploadStagingService.StagingArea staging = null;
+        ComparisonContext context = null;
+
         try {
-            // Convert reference file to File and store original name
-            File tempRefFile = convertToFile(referenceFile);
-            originalFileNames.put(tempRefFile, referenceFile.getOriginalFilename());
+            staging = stagingService.open("price");
+            context = new ComparisonContext(true, staging.getDirectory(), staging.contentHashes());
+
+            // Stage reference file and store original name
+            File tempRefFile = staging.stage(referenceFile);
+            originalFileNames.put(tempRefFile, staging.displayName(tempRefFile));
 
-            // Convert location files to List<File> and store original names
+            // Stage location files and store original names
             List<File> tempLocationFiles = new ArrayList<>();
             for (MultipartFile mf : locationFiles) {
-                File tempFile = convertToFile(mf);
+                File tempFile = staging.stage(mf);
                 tempLocationFiles.add(tempFile);
-                originalFileNames.put(tempFile, mf.getOriginalFilename());
+                originalFileNames.put(tempFile, staging.displayName(tempFile));
             }
 
-            // ✅ INTEGRATE FILEPROCESSOR HERE
-            List<File> allFiles = new ArrayList<>();
-            allFiles.add(tempRefFile);
-            allFiles.addAll(tempLocationFiles);
-
-            List<File> processedFiles = FileProccessor.processLocationFiles(allFiles, true);
-
-            // Update original file names for processed files
-            // The first file is the reference file, rest are location files
-            if (processedFiles.size() == allFiles.size()) {
-                for (int i = 0; i < processedFiles.size(); i++) {
-                    File originalFile = allFiles.get(i);
-                    File processedFile = processedFiles.get(i);
-                    String originalName = originalFileNames.get(originalFile);
-                    originalFileNames.put(processedFile, originalName);
-                }
-            }
-
-            // Extract processed reference and location files
-            File processedRefFile = processedFiles.get(0);
-            List<File> processedLocFiles = processedFiles.subList(1, processedFiles.size());
-
-            // Output report file
-            File outputFile = File.createTempFile("Price_Report", ".xlsx");
-            outputFile.deleteOnExit();
-
-            // ✅ Call logic with PROCESSED files and original file names
-            PriceComparerLogic.generateReport(processedRefFile, processedLocFiles, outputFile, originalFileNames);
-
-            // Read the generated file
-            byte[] fileContent = java.nio.file.Files.readAllBytes(outputFile.toPath());
-
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
             headers.setContentDispositionFormData("attachment", "Price_Report.xlsx");
 
+            // Identical reference + location uploads: serve the stored report
+            String cacheKey = ReportResultCache.key("price")
+                    .input("reference", tempRefFile, staging)
+                    .inputs("location", tempLocationFiles, staging)
+                    .build();
+            InputStream cached = resultCache.lookup(cacheKey);
+            if (cached != null) {
+                System.out.println("Serving price report from result cache");
+                ReportResponses.closeQuietly(context, staging);
+                return ResponseEntity.ok().headers(headers).body(ReportResponses.stored(cached));
+            }
+
+            // ✅ OGF normalization + comparison
+            Workbook report = buildPriceReport(tempRefFile, tempLocationFiles, originalFileNames, context);
+
+            // The workbook is written straight into the response; cleanup runs after the last byte
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(fileContent);
+                    .body(ReportResponses.cachedWorkbook(report, resultCache, cacheKey, context, staging));
 
-        } catch (IOException e) {
+        } catch (Exception e) {
             e.printStackTrace();
-            return ResponseEntity.status(500).body(null);
-        } finally {
-            // Clean up temporary files
-            cleanupTempFiles(originalFileNames);
+            ReportResponses.closeQuietly(context, staging);
+            return ResponseEntity.status(500)
+                    .body(ReportResponses.message("Error generating report: " + e.getMessage()));
         }
     }
 
-    // Helper method to convert MultipartFile to File
-    private File convertToFile(MultipartFile file) throws IOException {
-        File convFile = File.createTempFile("upload_" + System.currentTimeMillis() + "_", ".tmp");
-        convFile.deleteOnExit();
-        try (FileOutputStream fos = new FileOutputStream(convFile)) {
-            fos.write(file.getBytes());
-        }
-        return convFile;
-    }
-
-    // Helper method to clean up temporary files
-    private void cleanupTempFiles(Map<File, String> originalFileNames) {
-        for (File file : originalFileNames.keySet()) {
-            if (file.exists()) {
-                file.delete();
-            }
-        }
+    // Builds the price report from the staged files (shared with the job API). OGF location files are
+    // normalized row by row while PriceComparerLogic parses them, so no cleaned copies are written here.
+    static Workbook buildPriceReport(File tempRefFile, List<File> tempLocationFiles,
+                                     Map<File, String> originalFileNames, ComparisonContext context) throws IOException {
+        // ✅ Files keep their upload order, so every location column gets its own original file name
+        return PriceComparerLogic.buildReport(tempRefFile, tempLocationFiles, originalFileNames, context);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+package com.example.InventoryComparer.controller;
+
+import com.example.InventoryComparer.logic.ComparisonContext;
+import com.example.InventoryComparer.logic.FileProccessor;
+import com.example.InventoryComparer.logic.SKUComparerLogic;
+import com.example.InventoryComparer.service.AdmissionController.ReportType;
+import com.example.InventoryComparer.service.ReportJobService;
+import com.example.InventoryComparer.service.UploadStagingService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Background variant of the SKU and Price comparers: POST queues a job and returns its id,
+ * GET /{jobId} reports state/progress and GET /{jobId}/download serves the finished workbook.
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api/jobs")
+public class ReportJobController {
+
+    private final UploadStagingService stagingService;
+    private final ReportJobService jobService;
+    private final int retryAfterSeconds;
+
+    public ReportJobController(UploadStagingService stagingService, ReportJobService jobService,
+                               @Value("${comparer.admission.retryAfterSeconds:30}") int retryAfterSeconds) {
+        this.stagingService = stagingService;
+        this.jobService = jobService;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /** JSON view of a job returned by the submit and status endpoints. */
+    public record JobStatus(String jobId, String type, ReportJobService.State state, int progress, String stage,
+                            String error, Instant submittedAt, Instant startedAt, Instant finishedAt,
+                            String statusUrl, String downloadUrl) {
+
+        static JobStatus of(ReportJobService.ReportJob job) {
+            String base = "/api/jobs/" + job.getId();
+            return new JobStatus(job.getId(), job.getType(), job.getState(), job.getProgress(), job.getStage(),
+                    job.getError(), job.getSubmittedAt(), job.getStartedAt(), job.getFinishedAt(),
+                    base, job.getState() == ReportJobService.State.SUCCEEDED ? base + "/download" : null);
+        }
+    }
+
+    @PostMapping("/sku")
+    public ResponseEntity<JobStatus> submitSkuReport(
+            @RequestParam("locationFiles") List<MultipartFile> locationFiles,
+            @RequestParam(value = "unlistedFiles", required = false) List<MultipartFile> unlistedFiles,
+            @RequestParam(value = "ogfRulesChecked", required = false, defaultValue = "false") boolean ogfRulesChecked
+    ) {
+        UploadStagingService.StagingArea staging = null;
+        try {
+            // Uploads must be staged while the request is still open; the rest runs on the job pool
+            staging = stagingService.open("sku_job");
+            List<File> locationTempFiles = new ArrayList<>();
+            for (MultipartFile mf : locationFiles) {
+                locationTempFiles.add(staging.stage(mf));
+            }
+            List<File> unlistedTempFiles = new ArrayList<>();
+            if (unlistedFiles != null) {
+                for (MultipartFile mf : unlistedFiles) {
+                    unlistedTempFiles.add(staging.stage(mf));
+                }
+            }
+
+            ComparisonContext context = new ComparisonContext(ogfRulesChecked, staging.getDirectory(), staging.contentHashes());
+            ReportJobService.ReportJob job = jobService.submit(ReportType.SKU, "Inventory_Comparison_Report.xlsx", staging,
+                    progress -> {
+                        progress.update(15, "Preprocessing OGF files");
+                        List<File> processedLocationFiles = FileProccessor.processLocationFiles(locationTempFiles, context);
+                        progress.update(30, "Comparing inventory");
+                        return SKUComparerLogic.buildReport(processedLocationFiles, unlistedTempFiles, context);
+                    }, context);
+            return ResponseEntity.accepted().body(JobStatus.of(job));
+
+        } catch (RejectedExecutionException e) {
+            ReportResponses.closeQuietly(staging);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            ReportResponses.closeQuietly(staging);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @PostMapping("/price")
+    public ResponseEntity<JobStatus> submitPriceReport(
+            @RequestParam("referenceFile") MultipartFile referenceFile,
+            @RequestParam("locationFiles") MultipartFile[] locationFiles
+    ) {
+        UploadStagingService.StagingArea staging = null;
+        try {
+            staging = stagingService.open("price_job");
+            Map<File, String> originalFileNames = new HashMap<>();
+            File tempRefFile = staging.stage(referenceFile);
+            originalFileNames.put(tempRefFile, staging.displayName(tempRefFile));
+            List<File> tempLocationFiles = new ArrayList<>();
+            for (MultipartFile mf : locationFiles) {
+                File tempFile = staging.stage(mf);
+                tempLocationFiles.add(tempFile);
+                originalFileNames.put(tempFile, staging.displayName(tempFile));
+            }
+
+            ComparisonContext context = new ComparisonContext(true, staging.getDirectory(), staging.contentHashes());
+            ReportJobService.ReportJob job = jobService.submit(ReportType.PRICE, "Price_Report.xlsx", staging,
+                    progress -> {
+                        progress.update(15, "Comparing prices");
+                        return PriceComparerController.buildPriceReport(tempRefFile, tempLocationFiles, originalFileNames, context);
+                    }, context);
+            return ResponseEntity.accepted().body(JobStatus.of(job));
+
+        } catch (RejectedExecutionException e) {
+            ReportResponses.closeQuietly(staging);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            ReportResponses.closeQuietly(staging);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<JobStatus> getStatus(@PathVariable String jobId) {
+        ReportJobService.ReportJob job = jobService.get(jobId);
+        if (job == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(JobStatus.of(job));
+    }
+
+    @GetMapping("/{jobId}/download")
+    public ResponseEntity<Resource> download(@PathVariable String jobId) {
+        ReportJobService.ReportJob job = jobService.get(jobId);
+        if (job == null) return ResponseEntity.notFound().build();
+        File result = job.getResultFile();
+        if (job.getState() != ReportJobService.State.SUCCEEDED || result == null || !result.exists()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentDispositionFormData("attachment", job.getDownloadName());
+        return ResponseEntity.ok()
+                .headers(headers)
+                .contentLength(result.length())
+                .body(new FileSystemResource(result));
+    }
+
+    @DeleteMapping("/{jobId}")
+    public ResponseEntity<Void> discard(@PathVariable String jobId) {
+        return jobService.discard(jobId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.InventoryComparer.controller;
+
+import com.example.InventoryComparer.logic.ReportWorkbooks;
+import com.example.InventoryComparer.service.ReportResultCache;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Response bodies shared by the report controllers.
+ * Reports are written straight into the servlet output stream; the request's staging area and context
+ * stay open until the last byte has been written and are closed right after (also when the client disconnects).
+ */
+final class ReportResponses {
+
+    private ReportResponses() {}
+
+    /** Streams the workbook into the response, then releases it and closes the given resources in order. */
+    static StreamingResponseBody workbook(Workbook report, AutoCloseable... resources) {
+        return out -> {
+            try {
+                ReportWorkbooks.write(report, out);
+            } finally {
+                closeQuietly(resources);
+            }
+        };
+    }
+
+    /**
+     * Like {@link #workbook}, but also copies the bytes into the result cache under the given key.
+     * The cached copy is only kept if the whole workbook was written.
+     */
+    static StreamingResponseBody cachedWorkbook(Workbook report, ReportResultCache cache, String key,
+                                                AutoCloseable... resources) {
+        return out -> {
+            ReportResultCache.PendingResult pending = cache.begin(key);
+            boolean complete = false;
+            try {
+                ReportWorkbooks.write(report, pending == null ? out : new TeeOutputStream(out, pending));
+                complete = true;
+            } finally {
+                if (pending != null) {
+                    if (complete) pending.commit();
+                    else pending.abort();
+                }
+                closeQuietly(resources);
+            }
+        };
+    }
+
+    /** Streams a previously stored report from the stream opened by the result cache lookup, then closes it. */
+    static StreamingResponseBody stored(InputStream report) {
+        return out -> {
+            try (report) {
+                report.transferTo(out);
+            }
+        };
+    }
+
+    /** Plain error message body (same text the byte[] responses used to carry). */
+    static StreamingResponseBody message(String message) {
+        byte[] bytes = message.getBytes();
+        return out -> out.write(bytes);
+    }
+
+    /** Closes each non-null resource, logging (not throwing) failures. */
+    static void closeQuietly(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) continue;
+            try {
+                resource.close();
+            } catch (Exception e) {
+                System.err.println("Could not close request resource: " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes to the response and the pending cache entry; a failing cache copy never breaks the response
+    private static final class TeeOutputStream extends FilterOutputStream {
+        private final ReportResultCache.PendingResult pending;
+        private boolean copying = true;
+
+        TeeOutputStream(OutputStream response, ReportResultCache.PendingResult pending) {
+            super(response);
+            this.pending = pending;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copying) {
+                try {
+                    pending.stream().write(b);
+                } catch (IOException e) {
+                    stopCopying(e);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copying) {
+                try {
+                    pending.stream().write(b, off, len);
+                } catch (IOException e) {
+                    stopCopying(e);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The response stream is owned by the container
+            flush();
+        }
+
+        private void stopCopying(IOException e) {
+            System.err.println("Result cache copy failed: " + e.getMessage());
+            copying = false;
+            pending.abort();
+        }
+    }
+}
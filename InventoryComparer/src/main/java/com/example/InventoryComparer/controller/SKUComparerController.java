@@ -1,15 +1,19 @@
 package com.example.InventoryComparer.controller;
 
+import com.example.InventoryComparer.logic.ComparisonContext;
 import com.example.InventoryComparer.logic.FileProccessor;
 import com.example.InventoryComparer.logic.SKUComparerLogic;
+import com.example.InventoryComparer.service.ReportResultCache;
+import com.example.InventoryComparer.service.UploadStagingService;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,80 +22,79 @@ import java.util.List;
 @RequestMapping("/api/comparer")
 public class SKUComparerController {
 
+    private final UploadStagingService stagingService;
+    private final ReportResultCache resultCache;
+
+    public SKUComparerController(UploadStagingService stagingService, ReportResultCache resultCache) {
+        this.stagingService = stagingService;
+        this.resultCache = resultCache;
+    }
+
     @PostMapping("/generate")
-    public ResponseEntity<byte[]> generateReport(
+    public ResponseEntity<StreamingResponseBody> generateReport(
             @RequestParam("locationFiles") List<MultipartFile> locationFiles,
             @RequestParam(value = "unlistedFiles", required = false) List<MultipartFile> unlistedFiles,
             @RequestParam(value = "ogfRulesChecked", required = false, defaultValue = "false") boolean ogfRulesChecked
     ) {
-        List<File> locationTempFiles = new ArrayList<>();
-        List<File> processedLocationFiles = new ArrayList<>();
-        List<File> unlistedTempFiles = new ArrayList<>();
-        File outputFile = null;
+        // ✅ Per-request staging directory + request-scoped state (OGF flag + temp files); both stay open
+        // until the report has been streamed to the client
+        UploadStagingService.StagingArea staging = null;
+        ComparisonContext context = null;
 
         try {
-            // ✅ Convert uploaded MultipartFiles to temporary Files (preserving original names)
+            staging = stagingService.open("sku");
+            context = new ComparisonContext(ogfRulesChecked, staging.getDirectory(), staging.contentHashes());
+
+            List<File> locationTempFiles = new ArrayList<>();
+            List<File> unlistedTempFiles = new ArrayList<>();
+
+            // ✅ Stage uploaded MultipartFiles (preserving original names)
             for (MultipartFile mf : locationFiles) {
-                locationTempFiles.add(convertMultipartToFile(mf));
+                locationTempFiles.add(staging.stage(mf));
             }
 
             // ✅ ADD NULL CHECK HERE - This is the critical fix!
             if (unlistedFiles != null) {
                 for (MultipartFile mf : unlistedFiles) {
-                    unlistedTempFiles.add(convertMultipartToFile(mf));
+                    unlistedTempFiles.add(staging.stage(mf));
                 }
             }
 
-            // ✅ Apply OGF logic preprocessing here (controller level, before backend)
-            processedLocationFiles = FileProccessor.processLocationFiles(locationTempFiles, ogfRulesChecked);
-
-            // ✅ Temporary file for output
-            outputFile = File.createTempFile("Inventory_Comparison_Report_", ".xlsx");
-
-            // ✅ Call backend logic (unchanged signature)
-            SKUComparerLogic.generateReport(processedLocationFiles, unlistedTempFiles, outputFile, ogfRulesChecked);
-
-            // ✅ Read the generated file into bytes
-            byte[] fileContent = Files.readAllBytes(outputFile.toPath());
+            // ✅ Identical inputs + options: serve the stored report without comparing again
+            String cacheKey = ReportResultCache.key("sku")
+                    .param("ogfRulesChecked", ogfRulesChecked)
+                    .inputs("location", locationTempFiles, staging)
+                    .inputs("unlisted", unlistedTempFiles, staging)
+                    .build();
+            InputStream cached = resultCache.lookup(cacheKey);
 
             // ✅ Prepare response headers for download
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
             headers.setContentDispositionFormData("attachment", "Inventory_Comparison_Report.xlsx");
 
+            if (cached != null) {
+                System.out.println("Serving SKU report from result cache");
+                ReportResponses.closeQuietly(context, staging);
+                return ResponseEntity.ok().headers(headers).body(ReportResponses.stored(cached));
+            }
+
+            // ✅ Apply OGF logic preprocessing here (controller level, before backend)
+            List<File> processedLocationFiles = FileProccessor.processLocationFiles(locationTempFiles, context);
+
+            // ✅ Call backend logic with the request context
+            Workbook report = SKUComparerLogic.buildReport(processedLocationFiles, unlistedTempFiles, context);
+
+            // ✅ The workbook is written straight into the response; cleanup runs after the last byte
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(fileContent);
+                    .body(ReportResponses.cachedWorkbook(report, resultCache, cacheKey, context, staging));
 
         } catch (Exception e) {
             e.printStackTrace();
+            ReportResponses.closeQuietly(context, staging);
             return ResponseEntity.status(500)
-                    .body(("Error generating report: " + e.getMessage()).getBytes());
-        } finally {
-            // ✅ Cleanup all temporary files
-            cleanupTempFiles(locationTempFiles);
-            cleanupTempFiles(processedLocationFiles);
-            cleanupTempFiles(unlistedTempFiles);
-            if (outputFile != null && outputFile.exists()) outputFile.delete();
-        }
-    }
-
-    private File convertMultipartToFile(MultipartFile multipart) throws IOException {
-        // Create a temp file with the *original filename*
-        File convFile = new File(System.getProperty("java.io.tmpdir"), multipart.getOriginalFilename());
-        try (FileOutputStream fos = new FileOutputStream(convFile)) {
-            fos.write(multipart.getBytes());
-        }
-        return convFile;
-    }
-
-    private void cleanupTempFiles(List<File> files) {
-        for (File f : files) {
-            if (f != null && f.exists()) {
-                try {
-                    f.delete();
-                } catch (Exception ignored) {}
-            }
+                    .body(ReportResponses.message("Error generating report: " + e.getMessage()));
         }
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,17 @@
 package com.example.InventoryComparer.controller;
 
 import com.example.InventoryComparer.logic.SupplementVaultLogic;
+import com.example.InventoryComparer.service.ReportResultCache;
+import com.example.InventoryComparer.service.UploadStagingService;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,8 +20,16 @@ import java.util.List;
 @RequestMapping("/api/supplement-vault")
 public class SupplementVaultController {
 
+    private final UploadStagingService stagingService;
+    private final ReportResultCache resultCache;
+
+    public SupplementVaultController(UploadStagingService stagingService, ReportResultCache resultCache) {
+        this.stagingService = stagingService;
+        this.resultCache = resultCache;
+    }
+
     @PostMapping("/generate")
-    public ResponseEntity<byte[]> generateReport(
+    public ResponseEntity<StreamingResponseBody> generateReport(
             @RequestParam("orderFiles") List<MultipartFile> orderFiles,
             @RequestParam("couponFile") MultipartFile couponFile,
             @RequestParam("targetFile") MultipartFile targetFile,
@@ -28,58 +39,52 @@ public class SupplementVaultController {
             @RequestParam("reportDay") int reportDay
     ) {
         List<File> orderTempFiles = new ArrayList<>();
-        File couponTempFile = null;
-        File targetTempFile = null;
-        File outputFile = null;
+
+        // Staging area stays open until the report has been streamed to the client
+        UploadStagingService.StagingArea staging = null;
 
         try {
+            staging = stagingService.open("supplement_vault");
             for (MultipartFile mf : orderFiles) {
-                orderTempFiles.add(convertMultipartToFile(mf));
+                orderTempFiles.add(staging.stage(mf));
             }
-            couponTempFile = convertMultipartToFile(couponFile);
-            targetTempFile = convertMultipartToFile(targetFile);
+            File couponTempFile = staging.stage(couponFile);
+            File targetTempFile = staging.stage(targetFile);
 
-            outputFile = File.createTempFile("SupplementVault_Sales_Report_", ".xlsx");
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            headers.setContentDispositionFormData("attachment", "SupplementVault_Sales_Report.xlsx");
+
+            // Same uploads + same day counts: serve the stored report
+            String cacheKey = ReportResultCache.key("supplement_vault")
+                    .param("daysRemainingOnline", daysRemainingOnline)
+                    .param("daysRemainingOutlet", daysRemainingOutlet)
+                    .param("totalDays", totalDays)
+                    .param("reportDay", reportDay)
+                    .inputs("order", orderTempFiles, staging)
+                    .input("coupon", couponTempFile, staging)
+                    .input("target", targetTempFile, staging)
+                    .build();
+            InputStream cached = resultCache.lookup(cacheKey);
+            if (cached != null) {
+                ReportResponses.closeQuietly(staging);
+                return ResponseEntity.ok().headers(headers).body(ReportResponses.stored(cached));
+            }
 
-            SupplementVaultLogic.generateReport(
+            Workbook report = SupplementVaultLogic.buildReport(
                     orderTempFiles, couponTempFile, targetTempFile,
                     daysRemainingOnline, daysRemainingOutlet,
-                    totalDays, reportDay, outputFile
+                    totalDays, reportDay
             );
 
-            byte[] fileContent = Files.readAllBytes(outputFile.toPath());
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentDispositionFormData("attachment", "SupplementVault_Sales_Report.xlsx");
-
-            return ResponseEntity.ok().headers(headers).body(fileContent);
+            return ResponseEntity.ok().headers(headers)
+                    .body(ReportResponses.cachedWorkbook(report, resultCache, cacheKey, staging));
 
         } catch (Exception e) {
             e.printStackTrace();
+            ReportResponses.closeQuietly(staging);
             return ResponseEntity.status(500)
-                    .body(("Error generating report: " + e.getMessage()).getBytes());
-        } finally {
-            cleanupTempFiles(orderTempFiles);
-            if (couponTempFile != null && couponTempFile.exists()) couponTempFile.delete();
-            if (targetTempFile != null && targetTempFile.exists()) targetTempFile.delete();
-            if (outputFile != null && outputFile.exists()) outputFile.delete();
-        }
-    }
-
-    private File convertMultipartToFile(MultipartFile multipart) throws IOException {
-        File convFile = File.createTempFile("sv_upload_", "_" + multipart.getOriginalFilename());
-        try (FileOutputStream fos = new FileOutputStream(convFile)) {
-            fos.write(multipart.getBytes());
-        }
-        return convFile;
-    }
-
-    private void cleanupTempFiles(List<File> files) {
-        for (File f : files) {
-            if (f != null && f.exists()) {
-                try { f.delete(); } catch (Exception ignored) {}
-            }
+                    .body(ReportResponses.message("Error generating report: " + e.getMessage()));
         }
     }
 }
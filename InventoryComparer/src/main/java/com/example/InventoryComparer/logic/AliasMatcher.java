@@ -0,0 +1,114 @@
+// File: AliasMatcher.java
+package com.example.InventoryComparer.logic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over an ordered alias table (upper-case ASCII aliases). {@link #match} returns the
+ * value of the earliest alias in table order that occurs anywhere in the text - the same result as looping over
+ * the table with {@code text.toUpperCase().contains(alias)} - in a single scan, without allocating for ASCII text.
+ */
+final class AliasMatcher {
+
+    private static final int ALPHABET = 128;
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    private final String[] values;
+    private final int[][] next;  // full goto function: state x ASCII char -> state
+    private final int[] best;    // lowest alias priority ending at this state (incl. via suffix links)
+
+    AliasMatcher(Map<String, String> aliasToValue) {
+        this.values = aliasToValue.values().toArray(new String[0]);
+
+        // Trie of all aliases; priority = position in the (ordered) table
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> priorities = new ArrayList<>();
+        trie.add(newState());
+        priorities.add(NO_MATCH);
+        int priority = 0;
+        for (String alias : aliasToValue.keySet()) {
+            if (alias.isEmpty()) throw new IllegalArgumentException("Empty alias");
+            int state = 0;
+            for (int i = 0; i < alias.length(); i++) {
+                char c = alias.charAt(i);
+                if (c >= ALPHABET || (c >= 'a' && c <= 'z')) {
+                    throw new IllegalArgumentException("Alias must be upper-case ASCII: " + alias);
+                }
+                if (trie.get(state)[c] < 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState());
+                    priorities.add(NO_MATCH);
+                }
+                state = trie.get(state)[c];
+            }
+            priorities.set(state, Math.min(priorities.get(state), priority));
+            priority++;
+        }
+
+        this.next = trie.toArray(new int[0][]);
+        this.best = priorities.stream().mapToInt(Integer::intValue).toArray();
+
+        // Breadth-first: fill missing transitions from the failure state and inherit its best priority
+        int[] fail = new int[next.length];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            if (next[0][c] < 0) {
+                next[0][c] = 0;
+            } else {
+                fail[next[0][c]] = 0;
+                queue.add(next[0][c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            best[state] = Math.min(best[state], best[fail[state]]);
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = next[state][c];
+                if (child < 0) {
+                    next[state][c] = next[fail[state]][c];
+                } else {
+                    fail[child] = next[fail[state]][c];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    /** Value of the highest-priority alias contained in the text (case-insensitive), or null. */
+    String match(String text) {
+        if (text == null) return null;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= ALPHABET) {
+                // Non-ASCII: let String.toUpperCase handle special casing, exactly like the former lookup
+                return scan(text.toUpperCase());
+            }
+        }
+        return scan(text);
+    }
+
+    private String scan(String text) {
+        int state = 0;
+        int found = NO_MATCH;
+        for (int i = 0; i < text.length() && found > 0; i++) {
+            char c = text.charAt(i);
+            if (c >= ALPHABET) {
+                state = 0; // no alias contains non-ASCII characters
+                continue;
+            }
+            if (c >= 'a' && c <= 'z') c -= 'a' - 'A';
+            state = next[state][c];
+            found = Math.min(found, best[state]);
+        }
+        return found == NO_MATCH ? null : values[found];
+    }
+
+    private static int[] newState() {
+        int[] transitions = new int[ALPHABET];
+        Arrays.fill(transitions, -1);
+        return transitions;
+    }
+}
@@ -0,0 +1,79 @@
+// File: ColumnWidthTracker.java
+package com.example.InventoryComparer.logic;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.NumberToTextConverter;
+
+import java.util.Arrays;
+
+/**
+ * Cheap replacement for {@link Sheet#autoSizeColumn(int)}: remembers the longest text (in characters) seen
+ * per column while rows are written, then sets all widths at once. No font measurement is involved, so it
+ * works the same for XSSF and SXSSF sheets (no column tracking / row window limits).
+ */
+final class ColumnWidthTracker {
+
+    // Excel column widths are expressed in 1/256th of a character
+    private static final int CHAR_WIDTH = 256;
+    private static final int PADDING_CHARS = 2;
+    private static final int MIN_WIDTH_CHARS = 8;
+    // Keeps huge remark columns readable; Excel's hard limit is 255 characters
+    private static final int MAX_WIDTH_CHARS = 100;
+
+    private int[] maxChars = new int[16];
+    private int columnCount = 0;
+
+    /** Records the widths of all cells of a fully written row. */
+    void track(Row row) {
+        for (Cell cell : row) {
+            track(cell.getColumnIndex(), displayLength(cell));
+        }
+    }
+
+    /** Sets the width of every tracked column; O(columns). */
+    void apply(Sheet sheet) {
+        for (int col = 0; col < columnCount; col++) {
+            int chars = Math.min(MAX_WIDTH_CHARS, Math.max(MIN_WIDTH_CHARS, maxChars[col] + PADDING_CHARS));
+            sheet.setColumnWidth(col, chars * CHAR_WIDTH);
+        }
+    }
+
+    private void track(int col, int chars) {
+        if (col >= maxChars.length) {
+            maxChars = Arrays.copyOf(maxChars, Math.max(col + 1, maxChars.length * 2));
+        }
+        if (chars > maxChars[col]) maxChars[col] = chars;
+        if (col >= columnCount) columnCount = col + 1;
+    }
+
+    private static int displayLength(Cell cell) {
+        switch (cell.getCellType()) {
+            case STRING:
+                return longestLine(cell.getStringCellValue());
+            case NUMERIC:
+                return NumberToTextConverter.toText(cell.getNumericCellValue()).length();
+            case BOOLEAN:
+                return cell.getBooleanCellValue() ? 4 : 5;
+            default:
+                return 0;
+        }
+    }
+
+    // Multi-line cells (joined with "\n") are as wide as their longest line
+    private static int longestLine(String text) {
+        int longest = 0;
+        int current = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                longest = Math.max(longest, current);
+                current = 0;
+            } else if (!Character.isLowSurrogate(c)) {
+                current++;
+            }
+        }
+        return Math.max(longest, current);
+    }
+}
@@ -0,0 +1,81 @@
+// File: ComparisonContext.java
+package com.example.InventoryComparer.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per-request state of one comparison run: the rule flags chosen by the user and the temporary
+ * files created while preparing the inputs. Create one per request and close it when the report
+ * has been sent; nothing in here is shared between requests.
+ */
+public class ComparisonContext implements AutoCloseable {
+
+    private final boolean ogfRules;
+    private final File scratchDirectory;
+    private final ContentHashes.Memo contentHashes;
+    private final List<File> tempFiles = new CopyOnWriteArrayList<>();
+
+    public ComparisonContext(boolean ogfRules) {
+        this(ogfRules, null);
+    }
+
+    /** @param scratchDirectory where temp files go (e.g. the request's staging area); null for java.io.tmpdir */
+    public ComparisonContext(boolean ogfRules, File scratchDirectory) {
+        this(ogfRules, scratchDirectory, new ContentHashes.Memo());
+    }
+
+    /** @param contentHashes digests already computed for this request's inputs (e.g. the staging area's) */
+    public ComparisonContext(boolean ogfRules, File scratchDirectory, ContentHashes.Memo contentHashes) {
+        this.ogfRules = ogfRules;
+        this.scratchDirectory = scratchDirectory;
+        this.contentHashes = contentHashes;
+    }
+
+    /** Whether the "OGF Rules" box is checked (SKU comparer) / OGF preprocessing is active (Price comparer). */
+    public boolean isOgfRules() {
+        return ogfRules;
+    }
+
+    /** SHA-256 of an input file, computed at most once per request. */
+    public String contentHash(File file) throws IOException {
+        return contentHashes.sha256(file);
+    }
+
+    /** Creates a temp file owned by this run; it is deleted by {@link #close()}. */
+    public File createTempFile(String prefix, String suffix) throws IOException {
+        File tempFile = File.createTempFile(prefix, suffix, scratchDirectory);
+        tempFiles.add(tempFile);
+        return tempFile;
+    }
+
+    public boolean isTempFile(File file) {
+        return tempFiles.contains(file);
+    }
+
+    /** Deletes a temp file created by this run before the run ends. */
+    public void deleteTempFile(File file) {
+        if (tempFiles.remove(file)) {
+            deleteQuietly(file);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (File file : tempFiles) {
+            deleteQuietly(file);
+        }
+        tempFiles.clear();
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.exists()) return;
+        if (file.delete()) {
+            System.out.println("Cleaned up temporary file: " + file.getName());
+        } else {
+            System.err.println("Could not delete temporary file: " + file.getName());
+        }
+    }
+}
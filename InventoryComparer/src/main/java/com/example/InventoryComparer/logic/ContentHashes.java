@@ -0,0 +1,63 @@
+// File: ContentHashes.java
+package com.example.InventoryComparer.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** SHA-256 helpers used to key caches by file content. */
+public final class ContentHashes {
+
+    /**
+     * Per-request memo of file digests, so the result cache key and the parsed-input cache read each staged
+     * upload only once. Only for files that no longer change (staged uploads).
+     */
+    public static final class Memo {
+        private final Map<File, String> digests = new ConcurrentHashMap<>();
+
+        public String sha256(File file) throws IOException {
+            String digest = digests.get(file);
+            if (digest == null) {
+                // Hashed outside any lock: parallel parse tasks hash their own files concurrently
+                digest = ContentHashes.sha256(file);
+                digests.putIfAbsent(file, digest);
+            }
+            return digest;
+        }
+    }
+
+    private ContentHashes() {}
+
+    /** Hex SHA-256 of the file's bytes. */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Hex SHA-256 of the UTF-8 text. */
+    public static String sha256(String text) {
+        return HexFormat.of().formatHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -15,10 +15,11 @@ public class FileProccessor {
 
     public static final String OGF_PREFIX = "OGF-";
     public static final String OGF_FILENAME_PATTERN = "ogf";
-    private static final List<File> tempFiles = new ArrayList<>();
+    private static final String TEMP_OGF_PREFIX = "temp_price_ogf_";
 
-    public static List<File> processLocationFiles(List<File> originalFiles, boolean ogfActive) {
-        if (!ogfActive) {
+    // NEW: Request-scoped variant - temp copies are owned (and deleted) by the given context
+    public static List<File> processLocationFiles(List<File> originalFiles, ComparisonContext context) {
+        if (!context.isOgfRules()) {
             return originalFiles;
         }
 
@@ -47,10 +48,9 @@ public class FileProccessor {
         for (File ogfFile : ogfFiles) {
             try {
                 if (!ogfFile.equals(referenceFile)) {
-                    File tempFile = cleanupSkuForPriceComparison(ogfFile);
+                    File tempFile = cleanupSkuForPriceComparison(ogfFile, context);
                     if (tempFile == null) tempFile = ogfFile;
                     finalLocationFiles.add(tempFile);
-                    tempFiles.add(tempFile);
                 }
             } catch (IOException e) {
                 System.err.println("Error processing OGF file for Price Comparer: " + ogfFile.getName() + " - " + e.getMessage());
@@ -64,10 +64,10 @@ public class FileProccessor {
         return finalLocationFiles.stream().distinct().collect(Collectors.toList());
     }
 
-    public static File cleanupSkuForPriceComparison(File originalFile) throws IOException {
+    public static File cleanupSkuForPriceComparison(File originalFile, ComparisonContext context) throws IOException {
         System.out.println("Processing OGF file for Price Comparer SKU cleanup: " + originalFile.getName());
 
-        File tempFile = File.createTempFile("temp_price_ogf_", ".xlsx");
+        File tempFile = context.createTempFile(TEMP_OGF_PREFIX, ".xlsx");
 
         try (FileInputStream fis = new FileInputStream(originalFile);
              Workbook workbook = new XSSFWorkbook(fis);
@@ -93,35 +93,19 @@ public class FileProccessor {
             }
 
             // --- Update starts here ---
+            // UPDATED: The Remark column is looked up (or added) once, on the first data row, instead of per row
+            int remarkColIndex = -2;
             for (int i = 1; i <= sheet.getLastRowNum(); i++) {
                 Row row = sheet.getRow(i);
                 if (row == null) continue;
 
                 Cell skuCell = row.getCell(skuColIndex, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
                 String sku = formatter.formatCellValue(skuCell);
-                String skuRemark = "";
-
-                if (!sku.isEmpty()) {
-                    boolean hasOgf = sku.toUpperCase().startsWith(OGF_PREFIX);
-                    if (hasOgf) skuRemark = "OGF- prefix found.";
-                    else skuRemark = "WARNING: OGF- prefix missing from SKU.";
-                }
+                String skuRemark = ogfSkuRemark(sku);
 
                 // Write remark BEFORE cleaning
-                Row headerRowCheck = sheet.getRow(0);
-                int remarkColIndex = -1;
-                if (headerRowCheck != null) {
-                    for (Cell cell : headerRowCheck) {
-                        if (formatter.formatCellValue(cell).trim().equalsIgnoreCase("Remark")) {
-                            remarkColIndex = cell.getColumnIndex();
-                            break;
-                        }
-                    }
-                    if (remarkColIndex == -1) {
-                        remarkColIndex = headerRowCheck.getLastCellNum();
-                        Cell remarkHeader = headerRowCheck.createCell(remarkColIndex);
-                        remarkHeader.setCellValue("Remark");
-                    }
+                if (remarkColIndex == -2) {
+                    remarkColIndex = findOrAddRemarkColumn(headerRow, formatter);
                 }
 
                 if (remarkColIndex != -1) {
@@ -135,9 +119,7 @@ public class FileProccessor {
 
                 // Clean SKU AFTER remark is written
                 if (!sku.isEmpty() && sku.toUpperCase().contains(OGF_FILENAME_PATTERN.toUpperCase())) {
-                    String cleanedSku = sku.replaceAll("(?i)OGF", "").trim();
-                    cleanedSku = cleanedSku.replaceAll("^-|-$", "").trim();
-                    skuCell.setCellValue(cleanedSku);
+                    skuCell.setCellValue(cleanOgfSku(sku));
                 }
 
                 // Re-write every cell in the row as string using the displayed value (preserve commas/decimals)
@@ -151,7 +133,6 @@ public class FileProccessor {
             // --- Update ends here ---
 
             workbook.write(fos);
-            tempFiles.add(tempFile);
             return tempFile;
 
         } catch (Exception e) {
@@ -161,6 +142,38 @@ public class FileProccessor {
         }
     }
 
+    // NEW: Row-level OGF SKU rules, shared by the cleaned-copy path above and the in-memory price ingestion
+
+    /** Strips the OGF marker from a SKU ("OGF-123" -> "123"); SKUs without it are returned unchanged. */
+    public static String cleanOgfSku(String sku) {
+        if (sku.isEmpty() || !sku.toUpperCase().contains(OGF_FILENAME_PATTERN.toUpperCase())) return sku;
+        String cleanedSku = sku.replaceAll("(?i)OGF", "").trim();
+        return cleanedSku.replaceAll("^-|-$", "").trim();
+    }
+
+    public static boolean hasOgfPrefix(String sku) {
+        return sku.toUpperCase().startsWith(OGF_PREFIX);
+    }
+
+    /** Remark tagged onto an OGF row: empty for an empty SKU, otherwise whether the OGF- prefix is present. */
+    public static String ogfSkuRemark(String sku) {
+        if (sku.isEmpty()) return "";
+        return hasOgfPrefix(sku) ? "OGF- prefix found." : "WARNING: OGF- prefix missing from SKU.";
+    }
+
+    // Index of the "Remark" header, appending it when missing; -1 without a header row
+    private static int findOrAddRemarkColumn(Row headerRow, DataFormatter formatter) {
+        if (headerRow == null) return -1;
+        for (Cell cell : headerRow) {
+            if (formatter.formatCellValue(cell).trim().equalsIgnoreCase("Remark")) {
+                return cell.getColumnIndex();
+            }
+        }
+        int remarkColIndex = headerRow.getLastCellNum();
+        headerRow.createCell(remarkColIndex).setCellValue("Remark");
+        return remarkColIndex;
+    }
+
     // --- Shared Utility Methods ---
     private static String getStringValue(Cell cell) {
         if (cell == null) return "";
@@ -188,20 +201,4 @@ public class FileProccessor {
             return "";
         }
     }
-
-    public static void cleanUpTempFiles(List<File> filesToClean) {
-        List<File> successfullyCleaned = new ArrayList<>();
-        for (File file : filesToClean) {
-            if (file.getName().startsWith("temp_") && tempFiles.contains(file)) {
-                if (file.delete()) {
-                    System.out.println("Cleaned up temporary file: " + file.getName());
-                    successfullyCleaned.add(file);
-                } else {
-                    System.err.println("Could not delete temporary file: " + file.getName());
-                    file.deleteOnExit();
-                }
-            }
-        }
-        tempFiles.removeAll(successfullyCleaned);
-    }
 }
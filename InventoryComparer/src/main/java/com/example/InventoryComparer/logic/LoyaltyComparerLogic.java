@@ -3,8 +3,6 @@ package com.example.InventoryComparer.logic;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.apache.poi.xssf.streaming.SXSSFWorkbook;
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.util.IOUtils;
 
 import java.io.*;
@@ -19,13 +17,20 @@ public class LoyaltyComparerLogic {
     }
 
     public static void generateReport(File referenceFile, List<File> locationFiles, File outputFile) throws Exception {
+        System.out.println("Output file: " + outputFile.getAbsolutePath());
+        ReportWorkbooks.write(buildReport(referenceFile, locationFiles), outputFile);
+        System.out.println("=== Report generation completed successfully! ===");
+    }
+
+    // Builds the finished report workbook without writing it, so callers can stream it (e.g. into an
+    // HTTP response). The caller must write or release it via ReportWorkbooks.
+    public static Workbook buildReport(File referenceFile, List<File> locationFiles) throws Exception {
         System.out.println("=== Starting Loyalty Comparison Report ===");
         System.out.println("Reference file: " + referenceFile.getAbsolutePath());
         System.out.println("Location files: " + locationFiles.size());
         for (File loc : locationFiles) {
             System.out.println("  - " + loc.getAbsolutePath());
         }
-        System.out.println("Output file: " + outputFile.getAbsolutePath());
 
         // Validate input files
         if (!referenceFile.exists()) {
@@ -58,8 +63,7 @@ public class LoyaltyComparerLogic {
 
         // Generate comparison report
         System.out.println("Generating Excel report...");
-        generateLoyaltyReport(referencePhoneNumbers, locationRecordsMap, outputFile, locationFiles);
-        System.out.println("=== Report generation completed successfully! ===");
+        return generateLoyaltyReport(referencePhoneNumbers, locationRecordsMap, locationFiles);
     }
 
     private static List<String> readReferenceFilePhoneNumbers(File file) throws Exception {
@@ -68,9 +72,8 @@ public class LoyaltyComparerLogic {
         // Set memory limit again for safety
         IOUtils.setByteArrayMaxOverride(150_000_000);
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = file.getName().toLowerCase().endsWith(".xlsx") ?
-                     new XSSFWorkbook(fis) : new HSSFWorkbook(fis)) {
+        // Opened in place (read-only); .xlsx vs .xls is detected from the content
+        try (Workbook workbook = WorkbookSources.openReadOnly(file)) {
 
             Sheet sheet = workbook.getSheetAt(0);
             if (sheet == null) {
@@ -132,9 +135,8 @@ public class LoyaltyComparerLogic {
         // Set memory limit again for safety
         IOUtils.setByteArrayMaxOverride(150_000_000);
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = file.getName().toLowerCase().endsWith(".xlsx") ?
-                     new XSSFWorkbook(fis) : new HSSFWorkbook(fis)) {
+        // Opened in place (read-only); .xlsx vs .xls is detected from the content
+        try (Workbook workbook = WorkbookSources.openReadOnly(file)) {
 
             Sheet sheet = workbook.getSheetAt(0);
             if (sheet == null) {
@@ -469,10 +471,9 @@ public class LoyaltyComparerLogic {
         }
     }
 
-    private static void generateLoyaltyReport(List<String> referencePhoneNumbers,
-                                              Map<String, List<CustomerRecord>> locationRecordsMap,
-                                              File outputFile,
-                                              List<File> locationFiles) throws Exception {
+    private static Workbook generateLoyaltyReport(List<String> referencePhoneNumbers,
+                                                  Map<String, List<CustomerRecord>> locationRecordsMap,
+                                                  List<File> locationFiles) {
 
         int totalRecords = referencePhoneNumbers.size();
         int totalLocations = locationFiles.size();
@@ -485,45 +486,37 @@ public class LoyaltyComparerLogic {
 
         if (estimatedCells > 300000 || totalRecords > 10000) {
             System.out.println("Using streaming workbook for large dataset (" + totalRecords + " records)");
-            generateWithStreamingWorkbook(referencePhoneNumbers, locationRecordsMap, outputFile, locationFiles);
+            return generateWithStreamingWorkbook(referencePhoneNumbers, locationRecordsMap, locationFiles);
         } else {
             System.out.println("Using standard workbook");
-            generateWithStandardWorkbook(referencePhoneNumbers, locationRecordsMap, outputFile, locationFiles);
+            return generateWithStandardWorkbook(referencePhoneNumbers, locationRecordsMap, locationFiles);
         }
     }
 
-    private static void generateWithStreamingWorkbook(List<String> referencePhoneNumbers,
-                                                      Map<String, List<CustomerRecord>> locationRecordsMap,
-                                                      File outputFile,
-                                                      List<File> locationFiles) throws Exception {
-        try (SXSSFWorkbook workbook = new SXSSFWorkbook(100)) {
-            workbook.setCompressTempFiles(true);
-
-            Sheet comparisonSheet = workbook.createSheet("Loyalty Comparison");
-            if (comparisonSheet instanceof SXSSFSheet) {
-                ((SXSSFSheet) comparisonSheet).trackAllColumnsForAutoSizing();
-            }
-            createComparisonSheet(workbook, comparisonSheet, referencePhoneNumbers, locationRecordsMap, locationFiles);
-
-            try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                workbook.write(fos);
-            }
+    private static Workbook generateWithStreamingWorkbook(List<String> referencePhoneNumbers,
+                                                          Map<String, List<CustomerRecord>> locationRecordsMap,
+                                                          List<File> locationFiles) {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        workbook.setCompressTempFiles(true);
+        return fillWorkbook(workbook, referencePhoneNumbers, locationRecordsMap, locationFiles);
+    }
 
-            workbook.dispose();
-        }
+    private static Workbook generateWithStandardWorkbook(List<String> referencePhoneNumbers,
+                                                         Map<String, List<CustomerRecord>> locationRecordsMap,
+                                                         List<File> locationFiles) {
+        return fillWorkbook(new XSSFWorkbook(), referencePhoneNumbers, locationRecordsMap, locationFiles);
     }
 
-    private static void generateWithStandardWorkbook(List<String> referencePhoneNumbers,
-                                                     Map<String, List<CustomerRecord>> locationRecordsMap,
-                                                     File outputFile,
-                                                     List<File> locationFiles) throws Exception {
-        try (Workbook workbook = new XSSFWorkbook()) {
+    private static Workbook fillWorkbook(Workbook workbook, List<String> referencePhoneNumbers,
+                                         Map<String, List<CustomerRecord>> locationRecordsMap,
+                                         List<File> locationFiles) {
+        try {
             Sheet comparisonSheet = workbook.createSheet("Loyalty Comparison");
             createComparisonSheet(workbook, comparisonSheet, referencePhoneNumbers, locationRecordsMap, locationFiles);
-
-            try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                workbook.write(fos);
-            }
+            return workbook;
+        } catch (RuntimeException e) {
+            ReportWorkbooks.release(workbook);
+            throw e;
         }
     }
 
@@ -560,6 +553,10 @@ public class LoyaltyComparerLogic {
             cell.setCellStyle(headerStyle);
         }
 
+        // Column widths estimated from text length while writing (replaces autoSizeColumn)
+        ColumnWidthTracker columnWidths = new ColumnWidthTracker();
+        columnWidths.track(headerRow);
+
         int rowNum = 1;
         int notFoundCount = 0;
         int ignoreCount = 0;
@@ -649,18 +646,13 @@ public class LoyaltyComparerLogic {
                 }
                 differenceCell.setCellStyle(dataStyle);
             }
+            columnWidths.track(row);
         }
 
         System.out.println("Total phone not found occurrences: " + notFoundCount);
         System.out.println("Total ignored (no loyalty): " + ignoreCount);
 
-        try {
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
-            }
-        } catch (IllegalStateException e) {
-            System.out.println("Warning: Could not auto-size columns in streaming mode.");
-        }
+        columnWidths.apply(sheet);
     }
 
     private static boolean shouldIgnore(List<String> locationLoyaltyStatuses) {
@@ -9,14 +9,14 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import java.io.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
 
 
 public class POStockTallyLogic {
 
-    private static final DataFormatter dataFormatter = new DataFormatter();
+    // DataFormatter is not thread-safe - one per thread so concurrent requests never share an instance
+    private static final ThreadLocal<DataFormatter> dataFormatter = ThreadLocal.withInitial(DataFormatter::new);
     private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     private static final Map<String, String> COMPANY_ALIAS_TO_CODE = new LinkedHashMap<>();
@@ -50,6 +50,14 @@ public class POStockTallyLogic {
         COMPANY_ALIAS_TO_CODE.put("OUT800", "OUT800");
     }
 
+    // NEW: Alias lookup compiled once from the table above (table order = priority), plus the set of codes
+    private static final AliasMatcher COMPANY_ALIAS_MATCHER = new AliasMatcher(COMPANY_ALIAS_TO_CODE);
+    private static final Set<String> COMPANY_CODES = Set.copyOf(COMPANY_ALIAS_TO_CODE.values());
+
+    // NEW: Supplier cells repeat on almost every PO row; their resolved codes are memoized (bounded)
+    private static final int SUPPLIER_CODE_CACHE_LIMIT = 4096;
+    private static final Map<String, String> supplierCodeCache = new java.util.concurrent.ConcurrentHashMap<>();
+
     static class PORecord {
         String purchaseOrderNo;
         String supplier;
@@ -98,6 +106,29 @@ public class POStockTallyLogic {
         }
     }
 
+    // NEW: Where a tally row ended up; rendered to its remark text only when the report is written
+    enum MatchState {
+        PENDING("Pending"),
+        TALLY("Tally"),
+        TALLY_SECOND_PASS("Tally (2nd pass)"),
+        TALLY_THIRD_PASS("Tally (3rd pass)"),
+        NO_STOCK_ADJUSTMENT("Mismatch: no matching stock adjustment"),
+        NO_PURCHASE_ORDER("Mismatch: no matching purchase order"),
+        UNMATCHED("Unmatched");
+
+        final String remark;
+
+        MatchState(String remark) {
+            this.remark = remark;
+        }
+
+        boolean isTally() {
+            return this == TALLY || this == TALLY_SECOND_PASS || this == TALLY_THIRD_PASS;
+        }
+    }
+
+    static final int NO_DAY = Integer.MIN_VALUE; // date text that is not yyyy-MM-dd
+
     static class TallyRecord {
         String poNo;
         String company;
@@ -107,11 +138,13 @@ public class POStockTallyLogic {
         String product;
         String sku;
         String barcode;
-        String date;
+        final String date; // text as in the file (written to the report, compared by the exact passes)
+        final int day;     // NEW: epoch day of date, NO_DAY when unparseable (used by the week window)
         int quantity;
         String reason;
-        String idConflict;
-        String remarks;
+        String skuConflict;     // NEW: shared by every row of the conflicting date/SKU group
+        String barcodeConflict; // NEW: shared by every row of the conflicting date/barcode group
+        MatchState state = MatchState.PENDING;
         String saId;
         String sourceFile; // track file for third-pass
 
@@ -119,8 +152,8 @@ public class POStockTallyLogic {
         boolean shopMatched;
 
         TallyRecord(String poNo, String company, String companyCode, String supplier, String shop, String product,
-                    String sku, String barcode, String date, int quantity, String reason, String idConflict,
-                    String remarks, String saId, String sourceFile) {
+                    String sku, String barcode, String date, int quantity, String reason,
+                    String saId, String sourceFile) {
             this.poNo = poNo;
             this.company = company;
             this.companyCode = companyCode;
@@ -130,56 +163,79 @@ public class POStockTallyLogic {
             this.sku = sku;
             this.barcode = barcode;
             this.date = date;
+            this.day = epochDay(date);
             this.quantity = quantity;
             this.reason = reason;
-            this.idConflict = idConflict;
-            this.remarks = remarks;
             this.saId = saId;
             this.sourceFile = sourceFile;
             this.companyMatched = false;
             this.shopMatched = false;
         }
+
+        // Same text the concatenated ID Conflict column used to hold
+        String idConflict() {
+            if (skuConflict == null) return barcodeConflict == null ? "" : barcodeConflict;
+            return barcodeConflict == null ? skuConflict : skuConflict + "; " + barcodeConflict;
+        }
+    }
+
+    // NEW: One shared instance per distinct value within a run (codes, shop/company names, dates, reasons)
+    private static final class StringPool {
+        private final Map<String, String> values = new HashMap<>();
+
+        String of(String value) {
+            if (value == null) return null;
+            String pooled = values.putIfAbsent(value, value);
+            return pooled != null ? pooled : value;
+        }
     }
 
     // Main entry with excludeSAIds
     public static void generateReport(List<File> purchaseOrderFiles, List<File> stockAdjustmentFiles,
                                       File output, List<String> excludeSAIds) throws IOException {
+        ReportWorkbooks.write(buildReport(purchaseOrderFiles, stockAdjustmentFiles, excludeSAIds), output);
+        System.out.println("=== REPORT GENERATION COMPLETE ===");
+    }
+
+    // Builds the finished tally workbook without writing it, so callers can stream it (e.g. into an
+    // HTTP response). The caller must write or release it via ReportWorkbooks.
+    public static Workbook buildReport(List<File> purchaseOrderFiles, List<File> stockAdjustmentFiles,
+                                       List<String> excludeSAIds) throws IOException {
         System.out.println("=== STARTING REPORT GENERATION ===");
         if (excludeSAIds == null) excludeSAIds = new ArrayList<>();
         System.out.println("Exclude SA IDs: " + excludeSAIds);
 
-        final List<String> finalExcludeSAIds = new ArrayList<>(excludeSAIds); // make a final copy
+        // UPDATED: Hashed exclusion set instead of List.contains per stock row
+        final Set<String> finalExcludeSAIds = new HashSet<>(excludeSAIds);
+        StringPool pool = new StringPool();
 
         List<PORecord> allPORecords = new ArrayList<>();
         for (File file : purchaseOrderFiles) {
-            List<PORecord> recs = readPurchaseOrderFile(file);
+            List<PORecord> recs = readPurchaseOrderFile(file, pool);
             allPORecords.addAll(recs);
         }
 
         List<StockRecord> allStockRecords = new ArrayList<>();
         for (File file : stockAdjustmentFiles) {
-            List<StockRecord> recs = readStockAdjustmentFile(file).stream()
+            List<StockRecord> recs = readStockAdjustmentFile(file, pool).stream()
                     .filter(r -> r.saId == null || !finalExcludeSAIds.contains(r.saId)) // use final copy
                     .collect(Collectors.toList());
             allStockRecords.addAll(recs);
         }
 
         List<TallyRecord> tallyRecords = generateTallyRecords(allPORecords, allStockRecords);
-        writeTallyReport(tallyRecords, output);
-
-        System.out.println("=== REPORT GENERATION COMPLETE ===");
+        return buildTallyReport(tallyRecords);
     }
 
     public static void generateReport(List<File> purchaseOrderFiles, List<File> stockAdjustmentFiles, File output) throws IOException {
         generateReport(purchaseOrderFiles, stockAdjustmentFiles, output, new ArrayList<>());
     }
 
-    private static List<PORecord> readPurchaseOrderFile(File file) throws IOException {
+    private static List<PORecord> readPurchaseOrderFile(File file, StringPool pool) throws IOException {
         List<PORecord> records = new ArrayList<>();
         String shopName = file.getName().replaceAll("\\.(xlsx|xls)$", "");
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
+        try (Workbook workbook = WorkbookSources.openReadOnly(file)) {
 
             Sheet sheet = workbook.getSheetAt(0);
             Row headerRow = sheet.getRow(0);
@@ -187,7 +243,7 @@ public class POStockTallyLogic {
 
             Map<String, Integer> columnMap = new HashMap<>();
             for (Cell cell : headerRow) {
-                String header = dataFormatter.formatCellValue(cell).trim();
+                String header = dataFormatter.get().formatCellValue(cell).trim();
                 switch (header) {
                     case "Purchase Order": columnMap.put("PurchaseOrder", cell.getColumnIndex()); break;
                     case "Supplier": columnMap.put("Supplier", cell.getColumnIndex()); break;
@@ -212,14 +268,14 @@ public class POStockTallyLogic {
                 String qtyStr = getCellValue(row, columnMap.get("Quantity"));
 
                 String supplierCode = deriveCompanyCodeFromSupplierCell(supplierCell);
-                if (!COMPANY_ALIAS_TO_CODE.containsValue(supplierCode) && !"OUT010".equals(supplierCode)) continue;
+                if (!COMPANY_CODES.contains(supplierCode) && !"OUT010".equals(supplierCode)) continue;
 
                 if (po != null && !po.isEmpty() && supplierCode != null && !supplierCode.isEmpty()) {
                     try {
                         int qty = Integer.parseInt(qtyStr.trim());
                         if (qty > 0) {
-                            records.add(new PORecord(po.trim(), supplierCode, safeTrim(product),
-                                    safeTrim(sku), safeTrim(barcode), safeTrim(date), qty, safeTrim(shopName)));
+                            records.add(new PORecord(po.trim(), pool.of(supplierCode), safeTrim(product),
+                                    safeTrim(sku), safeTrim(barcode), pool.of(safeTrim(date)), qty, pool.of(safeTrim(shopName))));
                         }
                     } catch (NumberFormatException e) {}
                 }
@@ -231,13 +287,12 @@ public class POStockTallyLogic {
         return records;
     }
 
-    private static List<StockRecord> readStockAdjustmentFile(File file) throws IOException {
+    private static List<StockRecord> readStockAdjustmentFile(File file, StringPool pool) throws IOException {
         List<StockRecord> records = new ArrayList<>();
         String companyName = file.getName().replaceAll("\\.(xlsx|xls)$", "").trim();
         String companyCode = deriveCompanyCodeFromFileName(companyName);
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
+        try (Workbook workbook = WorkbookSources.openReadOnly(file)) {
 
             Sheet sheet = workbook.getSheetAt(0);
             Row headerRow = sheet.getRow(0);
@@ -245,7 +300,7 @@ public class POStockTallyLogic {
 
             Map<String, Integer> columnMap = new HashMap<>();
             for (Cell cell : headerRow) {
-                String header = dataFormatter.formatCellValue(cell).trim();
+                String header = dataFormatter.get().formatCellValue(cell).trim();
                 switch (header) {
                     case "SKU": columnMap.put("SKU", cell.getColumnIndex()); break;
                     case "Barcode": columnMap.put("Barcode", cell.getColumnIndex()); break;
@@ -270,9 +325,9 @@ public class POStockTallyLogic {
                 if (sku != null && !sku.isEmpty()) {
                     try {
                         int adjustment = Integer.parseInt(adjStr.trim());
-                        records.add(new StockRecord(safeTrim(sku), safeTrim(barcode), safeTrim(date),
-                                safeTrim(reason), adjustment, safeTrim(companyName), safeTrim(saId), safeTrim(companyCode),
-                                file.getName()));
+                        records.add(new StockRecord(safeTrim(sku), safeTrim(barcode), pool.of(safeTrim(date)),
+                                pool.of(safeTrim(reason)), adjustment, pool.of(safeTrim(companyName)), safeTrim(saId),
+                                pool.of(safeTrim(companyCode)), pool.of(file.getName())));
                     } catch (NumberFormatException e) {}
                 }
             }
@@ -283,19 +338,19 @@ public class POStockTallyLogic {
         return records;
     }
 
-    private static List<TallyRecord> generateTallyRecords(List<PORecord> poRecords, List<StockRecord> stockRecords) {
+    static List<TallyRecord> generateTallyRecords(List<PORecord> poRecords, List<StockRecord> stockRecords) {
         List<TallyRecord> tally = new ArrayList<>();
         for (PORecord p : poRecords) {
             tally.add(new TallyRecord(
                     p.purchaseOrderNo, "", "", p.supplier, p.shop, p.product,
-                    p.sku, p.barcode, p.date, p.quantity, "", "", "Pending", "", ""
+                    p.sku, p.barcode, p.date, p.quantity, "", "", ""
             ));
         }
 
         for (StockRecord s : stockRecords) {
             tally.add(new TallyRecord(
                     "", s.company, s.companyCode, "", "", "",
-                    s.sku, s.barcode, s.date, s.adjustment, s.reason, "", "Pending", s.saId, s.sourceFile
+                    s.sku, s.barcode, s.date, s.adjustment, s.reason, s.saId, s.sourceFile
             ));
         }
 
@@ -332,7 +387,7 @@ public class POStockTallyLogic {
                     .collect(Collectors.toSet());
             if (barcodes.size() > 1) {
                 String conflict = "Same SKU different barcodes: " + String.join(", ", barcodes);
-                for (TallyRecord rec : group) rec.idConflict = conflict;
+                for (TallyRecord rec : group) rec.skuConflict = conflict;
             }
         }
 
@@ -343,10 +398,7 @@ public class POStockTallyLogic {
                     .collect(Collectors.toSet());
             if (skus.size() > 1) {
                 String conflict = "Same barcode different SKUs: " + String.join(", ", skus);
-                for (TallyRecord rec : group) {
-                    if (isEmptyString(rec.idConflict)) rec.idConflict = conflict;
-                    else rec.idConflict += "; " + conflict;
-                }
+                for (TallyRecord rec : group) rec.barcodeConflict = conflict;
             }
         }
     }
@@ -360,140 +412,235 @@ public class POStockTallyLogic {
                 .filter(r -> !isEmptyString(r.company) && r.quantity < 0)
                 .collect(Collectors.toList());
 
-        Set<TallyRecord> matchedStocks = new HashSet<>();
+        // UPDATED: Hash join instead of comparing every PO with every stock adjustment. Each PO still takes
+        // the first unmatched stock adjustment (in stock-list order) with a matching company code and the same
+        // date, SKU, barcode (or both empty) and quantity.
+        ExactMatchIndex index = new ExactMatchIndex(stockList);
 
         for (TallyRecord po : poList) {
-            for (TallyRecord stock : stockList) {
-                if (matchedStocks.contains(stock)) continue;
-                if (isEmptyString(po.supplier) || isEmptyString(stock.companyCode)) continue;
-
-                if (("OUT010".equals(po.supplier) && "OUT600".equals(stock.companyCode))
-                        || po.supplier.equalsIgnoreCase(stock.companyCode)) {
-                    if (isExactMatch(po, stock)) {
-                        if (isEmptyString(po.company)) {
-                            po.company = stock.company;
-                            po.companyMatched = true;
-                        }
-                        if (isEmptyString(po.saId)) po.saId = stock.saId;
-                        po.remarks = "Tally";
-                        stock.poNo = po.poNo;
-                        if (isEmptyString(stock.supplier)) stock.supplier = po.supplier;
-                        if (isEmptyString(stock.shop)) {
-                            stock.shop = po.shop;
-                            stock.shopMatched = true;
-                        }
-                        stock.remarks = "Tally";
-                        matchedStocks.add(stock);
-                        break;
-                    }
+            if (isEmptyString(po.supplier)) continue;
+
+            TallyRecord stock = index.takeFirstMatch(po);
+            if (stock == null) continue;
+
+            if (isEmptyString(po.company)) {
+                po.company = stock.company;
+                po.companyMatched = true;
+            }
+            if (isEmptyString(po.saId)) po.saId = stock.saId;
+            po.state = MatchState.TALLY;
+            stock.poNo = po.poNo;
+            if (isEmptyString(stock.supplier)) stock.supplier = po.supplier;
+            if (isEmptyString(stock.shop)) {
+                stock.shop = po.shop;
+                stock.shopMatched = true;
+            }
+            stock.state = MatchState.TALLY;
+        }
+    }
+
+    // NEW: Exact-match key, normalized: company code upper-cased (equalsIgnoreCase), barcode null when empty
+    // (two empty barcodes match), quantity as |quantity|
+    private record ExactMatchKey(String companyCode, String date, String sku, String barcode, int quantity) {
+        static ExactMatchKey of(String companyCode, TallyRecord record) {
+            return new ExactMatchKey(companyCode.toUpperCase(Locale.ROOT), record.date, record.sku,
+                    isEmptyString(record.barcode) ? null : record.barcode, Math.abs(record.quantity));
+        }
+    }
+
+    // NEW: Stock adjustments bucketed by ExactMatchKey, each bucket in stock-list order
+    private static final class ExactMatchIndex {
+        private static final class Bucket {
+            final List<TallyRecord> stocks = new ArrayList<>();
+            int next; // every stock before this one is matched
+        }
+
+        private final Map<ExactMatchKey, Bucket> buckets = new HashMap<>();
+        private final Map<TallyRecord, Integer> positions = new IdentityHashMap<>();
+        private final Set<TallyRecord> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        ExactMatchIndex(List<TallyRecord> stockList) {
+            for (int i = 0; i < stockList.size(); i++) {
+                TallyRecord stock = stockList.get(i);
+                if (isEmptyString(stock.companyCode)) continue;
+                positions.put(stock, i);
+                buckets.computeIfAbsent(ExactMatchKey.of(stock.companyCode, stock), k -> new Bucket()).stocks.add(stock);
+            }
+        }
+
+        // First unmatched stock for this PO in stock-list order (marked as matched), or null
+        TallyRecord takeFirstMatch(TallyRecord po) {
+            TallyRecord candidate = first(ExactMatchKey.of(po.supplier, po), false);
+            // OUT010 purchase orders are also received by OUT600
+            if ("OUT010".equals(po.supplier)) {
+                TallyRecord out600 = first(ExactMatchKey.of("OUT600", po), true);
+                if (candidate == null || (out600 != null && positions.get(out600) < positions.get(candidate))) {
+                    candidate = out600;
                 }
             }
+            if (candidate != null) matched.add(candidate);
+            return candidate;
+        }
+
+        private TallyRecord first(ExactMatchKey key, boolean exactOut600) {
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) return null;
+            while (bucket.next < bucket.stocks.size() && matched.contains(bucket.stocks.get(bucket.next))) {
+                bucket.next++;
+            }
+            for (int i = bucket.next; i < bucket.stocks.size(); i++) {
+                TallyRecord stock = bucket.stocks.get(i);
+                if (matched.contains(stock)) continue;
+                if (!exactOut600 || "OUT600".equals(stock.companyCode)) return stock;
+            }
+            return null;
         }
     }
 
     private static void performSecondPassMatching(List<TallyRecord> records) {
         List<TallyRecord> unmatchedPO = records.stream()
-                .filter(r -> !isEmptyString(r.poNo) && (isEmptyString(r.remarks) || !r.remarks.startsWith("Tally")))
+                .filter(r -> !isEmptyString(r.poNo) && !r.state.isTally())
                 .collect(Collectors.toList());
 
         List<TallyRecord> unmatchedStock = records.stream()
-                .filter(r -> !isEmptyString(r.company) && (isEmptyString(r.remarks) || !r.remarks.startsWith("Tally")))
+                .filter(r -> !isEmptyString(r.company) && !r.state.isTally())
                 .collect(Collectors.toList());
 
-        Set<TallyRecord> matchedStocks = new HashSet<>();
+        // UPDATED: Stock adjustments are indexed by (company code, SKU, |quantity|) with date-sorted candidates,
+        // parsed once. A PO looks at the +/-7 day window of its bucket and takes the first unmatched stock
+        // adjustment in stock-list order, the same one the former nested loop picked.
+        WindowMatchIndex index = new WindowMatchIndex(unmatchedStock);
 
         for (TallyRecord po : unmatchedPO) {
-            for (TallyRecord stock : unmatchedStock) {
-                if (matchedStocks.contains(stock)) continue;
-                if (isEmptyString(po.supplier) || isEmptyString(stock.companyCode)) continue;
-
-                if (("OUT010".equals(po.supplier) && "OUT600".equals(stock.companyCode))
-                        || po.supplier.equalsIgnoreCase(stock.companyCode)) {
-                    if (!isEmptyString(po.sku) && po.sku.equals(stock.sku)
-                            && Math.abs(stock.quantity) == po.quantity
-                            && isWithinOneWeek(po.date, stock.date)) {
-
-                        if (isEmptyString(po.company)) {
-                            po.company = stock.company;
-                            po.companyMatched = true;
-                        }
-                        if (isEmptyString(po.saId)) po.saId = stock.saId;
-                        po.remarks = "Tally (2nd pass)";
-                        stock.poNo = po.poNo;
-                        if (isEmptyString(stock.shop)) {
-                            stock.shop = po.shop;
-                            stock.shopMatched = true;
-                        }
-                        stock.remarks = "Tally (2nd pass)";
-                        matchedStocks.add(stock);
-                        break;
-                    }
-                }
+            if (isEmptyString(po.supplier) || isEmptyString(po.sku)) continue;
+            if (po.day == NO_DAY) continue;
+
+            TallyRecord stock = index.takeFirstMatch(po, po.day);
+            if (stock == null) continue;
+
+            if (isEmptyString(po.company)) {
+                po.company = stock.company;
+                po.companyMatched = true;
+            }
+            if (isEmptyString(po.saId)) po.saId = stock.saId;
+            po.state = MatchState.TALLY_SECOND_PASS;
+            stock.poNo = po.poNo;
+            if (isEmptyString(stock.shop)) {
+                stock.shop = po.shop;
+                stock.shopMatched = true;
             }
+            stock.state = MatchState.TALLY_SECOND_PASS;
         }
     }
 
-    private static void performThirdPassStockMatching(List<TallyRecord> records) {
-        List<TallyRecord> unmatchedStock = records.stream()
-                .filter(r -> !isEmptyString(r.company) && (isEmptyString(r.remarks) || !r.remarks.startsWith("Tally")))
-                .collect(Collectors.toList());
+    private record WindowMatchKey(String companyCode, String sku, int quantity) {}
 
-        Set<TallyRecord> matchedStocks = new HashSet<>();
+    // NEW: Second-pass candidates: per (company code, SKU, |quantity|) bucket, sorted by date
+    private static final class WindowMatchIndex {
+        private static final int WINDOW_DAYS = 7;
 
-        for (int i = 0; i < unmatchedStock.size(); i++) {
-            TallyRecord s1 = unmatchedStock.get(i);
-            if (matchedStocks.contains(s1)) continue;
+        private record Candidate(TallyRecord stock, int epochDay, int position) {}
 
-            for (int j = i + 1; j < unmatchedStock.size(); j++) {
-                TallyRecord s2 = unmatchedStock.get(j);
-                if (matchedStocks.contains(s2)) continue;
+        private final Map<WindowMatchKey, List<Candidate>> buckets = new HashMap<>();
+        private final Set<TallyRecord> matched = Collections.newSetFromMap(new IdentityHashMap<>());
 
-                if (!s1.sourceFile.equals(s2.sourceFile)) continue;
-
-                if (!isEmptyString(s1.sku) && s1.sku.equals(s2.sku)
-                        && s1.date.equals(s2.date)
-                        && s1.quantity == -s2.quantity) {
+        WindowMatchIndex(List<TallyRecord> stockList) {
+            for (int i = 0; i < stockList.size(); i++) {
+                TallyRecord stock = stockList.get(i);
+                if (isEmptyString(stock.companyCode)) continue;
+                if (stock.day == NO_DAY) continue; // an unparseable date is never within a week
+                WindowMatchKey key = new WindowMatchKey(stock.companyCode.toUpperCase(Locale.ROOT), stock.sku,
+                        Math.abs(stock.quantity));
+                buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(new Candidate(stock, stock.day, i));
+            }
+            Comparator<Candidate> byDate = Comparator.comparingInt(Candidate::epochDay);
+            buckets.values().forEach(candidates -> candidates.sort(byDate.thenComparingInt(Candidate::position)));
+        }
 
-                    s1.remarks = "Tally (3rd pass)";
-                    s2.remarks = "Tally (3rd pass)";
-                    matchedStocks.add(s1);
-                    matchedStocks.add(s2);
-                    break;
+        // First unmatched stock within a week of the PO date, in stock-list order (marked as matched), or null
+        TallyRecord takeFirstMatch(TallyRecord po, long poDay) {
+            Candidate candidate = first(new WindowMatchKey(po.supplier.toUpperCase(Locale.ROOT), po.sku, po.quantity), poDay, false);
+            // OUT010 purchase orders are also received by OUT600
+            if ("OUT010".equals(po.supplier)) {
+                Candidate out600 = first(new WindowMatchKey("OUT600", po.sku, po.quantity), poDay, true);
+                if (candidate == null || (out600 != null && out600.position() < candidate.position())) {
+                    candidate = out600;
                 }
             }
+            if (candidate == null) return null;
+            matched.add(candidate.stock());
+            return candidate.stock();
+        }
+
+        private Candidate first(WindowMatchKey key, long poDay, boolean exactOut600) {
+            List<Candidate> candidates = buckets.get(key);
+            if (candidates == null) return null;
+
+            // Binary search for the first candidate at or after poDay - WINDOW_DAYS
+            int low = 0, high = candidates.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (candidates.get(mid).epochDay() < poDay - WINDOW_DAYS) low = mid + 1;
+                else high = mid;
+            }
+
+            Candidate best = null;
+            for (int i = low; i < candidates.size() && candidates.get(i).epochDay() <= poDay + WINDOW_DAYS; i++) {
+                Candidate candidate = candidates.get(i);
+                if (matched.contains(candidate.stock())) continue;
+                if (exactOut600 && !"OUT600".equals(candidate.stock().companyCode)) continue;
+                if (best == null || candidate.position() < best.position()) best = candidate;
+            }
+            return best;
         }
     }
 
-    private static boolean isExactMatch(TallyRecord po, TallyRecord stock) {
-        boolean dateMatch = po.date.equals(stock.date);
-        boolean skuMatch = po.sku.equals(stock.sku);
-        boolean barcodeMatch = (isEmptyString(po.barcode) && isEmptyString(stock.barcode))
-                || po.barcode.equals(stock.barcode);
-        boolean qtyMatch = po.quantity == Math.abs(stock.quantity);
+    private static void performThirdPassStockMatching(List<TallyRecord> records) {
+        List<TallyRecord> unmatchedStock = records.stream()
+                .filter(r -> !isEmptyString(r.company) && !r.state.isTally())
+                .collect(Collectors.toList());
+
+        // UPDATED: One pass instead of comparing every row with every later row. Rows still waiting for a
+        // reversal are queued per (source file, SKU, date, quantity); a row pairs with the oldest waiting row of
+        // the opposite quantity. That is the same pairing the former "each row takes the first later opposite"
+        // loop produced: a row only waits when no earlier unmatched opposite exists.
+        Map<ReversalKey, ArrayDeque<TallyRecord>> waiting = new HashMap<>();
+
+        for (TallyRecord stock : unmatchedStock) {
+            if (isEmptyString(stock.sku)) continue;
 
-        return dateMatch && skuMatch && barcodeMatch && qtyMatch;
+            ArrayDeque<TallyRecord> opposites = waiting.get(new ReversalKey(stock.sourceFile, stock.sku, stock.date, -stock.quantity));
+            TallyRecord reversal = opposites != null ? opposites.pollFirst() : null;
+            if (reversal != null) {
+                reversal.state = MatchState.TALLY_THIRD_PASS;
+                stock.state = MatchState.TALLY_THIRD_PASS;
+            } else {
+                waiting.computeIfAbsent(new ReversalKey(stock.sourceFile, stock.sku, stock.date, stock.quantity),
+                        k -> new ArrayDeque<>()).addLast(stock);
+            }
+        }
     }
 
-    private static boolean isWithinOneWeek(String poDateStr, String stockDateStr) {
+    private record ReversalKey(String sourceFile, String sku, String date, int quantity) {}
+
+    // UPDATED: Replaces isWithinOneWeek's per-pair parsing - each date is parsed once, when its record is built
+    private static int epochDay(String dateStr) {
         try {
-            LocalDate poDate = LocalDate.parse(poDateStr, dateFormatter);
-            LocalDate stockDate = LocalDate.parse(stockDateStr, dateFormatter);
-            long daysBetween = Math.abs(ChronoUnit.DAYS.between(poDate, stockDate));
-            return daysBetween <= 7;
+            return Math.toIntExact(LocalDate.parse(dateStr, dateFormatter).toEpochDay());
         } catch (Exception e) {
-            return false;
+            return NO_DAY;
         }
     }
 
     private static void updateRemarksForUnmatched(List<TallyRecord> records) {
         for (TallyRecord r : records) {
-            if (isEmptyString(r.remarks) || "Pending".equalsIgnoreCase(r.remarks)) {
+            if (r.state == MatchState.PENDING) {
                 if (!isEmptyString(r.poNo)) {
-                    r.remarks = "Mismatch: no matching stock adjustment";
+                    r.state = MatchState.NO_STOCK_ADJUSTMENT;
                 } else if (!isEmptyString(r.company)) {
-                    r.remarks = "Mismatch: no matching purchase order";
+                    r.state = MatchState.NO_PURCHASE_ORDER;
                 } else {
-                    r.remarks = "Unmatched"; // fallback
+                    r.state = MatchState.UNMATCHED; // fallback
                 }
             }
         }
@@ -503,8 +650,18 @@ public class POStockTallyLogic {
 
     //Output
 
-    private static void writeTallyReport(List<TallyRecord> records, File output) throws IOException {
+    private static Workbook buildTallyReport(List<TallyRecord> records) {
         Workbook workbook = new XSSFWorkbook();
+        try {
+            fillTallySheet(workbook, records);
+            return workbook;
+        } catch (RuntimeException e) {
+            ReportWorkbooks.release(workbook);
+            throw e;
+        }
+    }
+
+    private static void fillTallySheet(Workbook workbook, List<TallyRecord> records) {
         Sheet sheet = workbook.createSheet("Tally Report");
 
         // Updated header row (Company Code removed)
@@ -579,19 +736,14 @@ public class POStockTallyLogic {
             row.createCell(10).setCellValue(r.reason);
 
             // ID Conflict
-            row.createCell(11).setCellValue(r.idConflict);
+            row.createCell(11).setCellValue(r.idConflict());
 
             // Remarks
-            row.createCell(12).setCellValue(r.remarks);
+            row.createCell(12).setCellValue(r.state.remark);
 
             // SA ID
             row.createCell(13).setCellValue(r.saId);
         }
-
-        try (FileOutputStream fos = new FileOutputStream(output)) {
-            workbook.write(fos);
-        }
-        workbook.close();
     }
 
 
@@ -600,7 +752,7 @@ public class POStockTallyLogic {
         if (colIndex == null) return "";
         Cell cell = row.getCell(colIndex);
         if (cell == null) return "";
-        return dataFormatter.formatCellValue(cell).trim();
+        return dataFormatter.get().formatCellValue(cell).trim();
     }
 
     private static String safeTrim(String s) {
@@ -611,18 +763,20 @@ public class POStockTallyLogic {
         return s == null || s.trim().isEmpty();
     }
 
+    // UPDATED: First alias (in table order) contained in the name, via the precompiled matcher
     private static String deriveCompanyCodeFromFileName(String fileName) {
-        for (Map.Entry<String, String> e : COMPANY_ALIAS_TO_CODE.entrySet()) {
-            if (fileName.toUpperCase().contains(e.getKey().toUpperCase())) return e.getValue();
-        }
-        return "";
+        String code = COMPANY_ALIAS_MATCHER.match(fileName);
+        return code != null ? code : "";
     }
 
     private static String deriveCompanyCodeFromSupplierCell(String supplier) {
         if (supplier == null) return "";
-        for (Map.Entry<String, String> e : COMPANY_ALIAS_TO_CODE.entrySet()) {
-            if (supplier.toUpperCase().contains(e.getKey().toUpperCase())) return e.getValue();
-        }
-        return supplier.toUpperCase();
+        String cached = supplierCodeCache.get(supplier);
+        if (cached != null) return cached;
+
+        String code = COMPANY_ALIAS_MATCHER.match(supplier);
+        if (code == null) code = supplier.toUpperCase();
+        if (supplierCodeCache.size() < SUPPLIER_CODE_CACHE_LIMIT) supplierCodeCache.put(supplier, code);
+        return code;
     }
 }
@@ -0,0 +1,96 @@
+// File: ParsedInputCache.java
+package com.example.InventoryComparer.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Content-addressed cache of parsed input files. Entries are keyed by the SHA-256 of the file bytes plus the
+ * kind of parse, so re-uploading the same export (under any file name) skips XLSX parsing entirely.
+ * Bounded by an estimate of the cached objects' size (-Dcomparer.inputCache.maxMb, default 128) with LRU eviction.
+ * Cached values are shared between requests and must be immutable.
+ */
+public final class ParsedInputCache {
+
+    /** Parses a file; may fail with an IOException. */
+    interface Parser<T> {
+        T parse(File file) throws IOException;
+    }
+
+    /** Snapshot of the cache counters. */
+    public record Stats(long hits, long misses, long evictions, int entries, long estimatedBytes, long maxBytes) {}
+
+    private static final long MAX_BYTES = Long.getLong("comparer.inputCache.maxMb", 128L) * 1024L * 1024L;
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order = LRU
+    private static long currentBytes = 0;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private record Entry(Object value, long bytes) {}
+
+    private ParsedInputCache() {}
+
+    /**
+     * Returns the cached parse of this file's content, parsing (outside the lock) and caching it on a miss.
+     *
+     * @param contentHash SHA-256 of the file's bytes (see {@link ComparisonContext#contentHash})
+     * @param kind        identifies the parser/shape of the value, e.g. "price-table"
+     * @param sizer       rough heap size of a parsed value in bytes
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T get(File file, String contentHash, String kind, Parser<T> parser, ToLongFunction<T> sizer) throws IOException {
+        String key = kind + ":" + contentHash;
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return (T) entry.value();
+            }
+        }
+
+        misses.incrementAndGet();
+        T value = parser.parse(file);
+        long bytes = sizer.applyAsLong(value);
+        if (bytes <= MAX_BYTES) {
+            synchronized (entries) {
+                Entry previous = entries.put(key, new Entry(value, bytes));
+                currentBytes += bytes - (previous != null ? previous.bytes() : 0);
+                evictOverflow();
+            }
+        }
+        return value;
+    }
+
+    public static Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.get(), misses.get(), evictions.get(), entries.size(), currentBytes, MAX_BYTES);
+        }
+    }
+
+    /** Drops every entry (counters are kept). */
+    public static void clear() {
+        synchronized (entries) {
+            entries.clear();
+            currentBytes = 0;
+        }
+    }
+
+    // Caller holds the lock
+    private static void evictOverflow() {
+        Iterator<Entry> eldestFirst = entries.values().iterator();
+        while (currentBytes > MAX_BYTES && eldestFirst.hasNext()) {
+            currentBytes -= eldestFirst.next().bytes();
+            eldestFirst.remove();
+            evictions.incrementAndGet();
+        }
+    }
+}
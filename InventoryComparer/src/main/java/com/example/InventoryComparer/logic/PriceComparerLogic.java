@@ -4,8 +4,6 @@ import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.*;
 
@@ -18,9 +16,20 @@ public class PriceComparerLogic {
     private static final String COMPARED_PRICE_HEADER = "Compare at price";
     private static final String AVAILABLE_HEADER = "Available"; // NEW: Stock header
 
+    // NEW: Displayed-text reads of OGF rows happen on parse threads; DataFormatter is not thread-safe
+    private static final ThreadLocal<DataFormatter> dataFormatter = ThreadLocal.withInitial(DataFormatter::new);
+
     //Data Structures
     private record ColumnIndices(int skuCol, int nameCol, int priceCol, int comparedPriceCol, int availableCol) {} // UPDATED: Added availableCol
 
+    // NEW: Parsed content of a price export (reference or location). Immutable, so it can be shared through
+    // ParsedInputCache between requests that upload the same file. Rows with an empty SKU are dropped.
+    private record PriceRow(String sku, String name, Double price, Double compareAtPrice, Integer stock) {}
+    private record PriceTable(ColumnIndices indices, List<PriceRow> rows) {}
+
+    // NEW: A location export read ahead of the comparison (OGF files already SKU-cleaned)
+    private record LocationTable(String originalFileName, boolean ogf, PriceTable table) {}
+
     private static class ReferenceItem {
         private final String sku;
         private final String productName;
@@ -28,11 +37,7 @@ public class PriceComparerLogic {
         private final double referenceCompareAtPrice;
         private final List<String> discrepancies;
         private final List<String> basicRemarks;
-        private final Map<String, Double> locationPrices;
-        private final Map<String, Double> locationCompareAtPrices;
-        private final Map<String, Double> compareAtPriceDifferences;
-        private final Map<String, Double> locationPricesUsed; // Track which price was actually used
-        private final Map<String, Integer> locationStock; // NEW: Track stock per location
+        private final int slot; // NEW: Row of this item in the run's LocationStore (per-location prices/stock)
         private String status;
         private double ogfPercentageDiff;
         private String ogfPercentageRemark;
@@ -41,30 +46,24 @@ public class PriceComparerLogic {
         private int totalStock; // NEW: Total stock across all locations
         private final List<String> ogfDiscrepancies; // NEW: Separate OGF discrepancies
         private final List<String> nonOgfDiscrepancies; // NEW: Separate non-OGF discrepancies
-        private final Map<String, Double> locationDiscountPercentages; // NEW FIELD 1
         private final List<String> discountDiscrepancies;
         private Double referenceDiscountPercentage; // NEW: Reference discount %
 
         public ReferenceItem(String sku, String productName, double referencePrice, double referenceCompareAtPrice,
-                             List<String> discrepancies, Map<String, Double> locationPrices, String status) {
+                             List<String> discrepancies, int slot, String status) {
             this.sku = sku;
             this.productName = productName;
             this.referencePrice = referencePrice;
             this.referenceCompareAtPrice = referenceCompareAtPrice;
             this.discrepancies = discrepancies;
             this.basicRemarks = new ArrayList<>();
-            this.locationPrices = locationPrices;
-            this.locationCompareAtPrices = new HashMap<>();
-            this.compareAtPriceDifferences = new HashMap<>();
-            this.locationPricesUsed = new HashMap<>(); // Track price used for comparison
-            this.locationStock = new HashMap<>(); // NEW: Initialize stock map
+            this.slot = slot;
             this.status = status;
             this.statusReason = "";
             this.differenceExplanation = ""; // Initialize
             this.totalStock = 0; // NEW: Initialize total stock
             this.ogfDiscrepancies = new ArrayList<>(); // NEW: Initialize OGF discrepancies
             this.nonOgfDiscrepancies = new ArrayList<>(); // NEW: Initialize non-OGF discrepancies
-            this.locationDiscountPercentages = new HashMap<>();
             this.discountDiscrepancies = new ArrayList<>();
             this.referenceDiscountPercentage = null;
         }
@@ -75,11 +74,7 @@ public class PriceComparerLogic {
         public double referenceCompareAtPrice() { return referenceCompareAtPrice; }
         public List<String> discrepancies() { return discrepancies; }
         public List<String> basicRemarks() { return basicRemarks; }
-        public Map<String, Double> locationPrices() { return locationPrices; }
-        public Map<String, Double> locationCompareAtPrices() { return locationCompareAtPrices; }
-        public Map<String, Double> compareAtPriceDifferences() { return compareAtPriceDifferences; }
-        public Map<String, Double> locationPricesUsed() { return locationPricesUsed; }
-        public Map<String, Integer> locationStock() { return locationStock; } // NEW: Getter for location stock
+        public int slot() { return slot; }
         public String status() { return status; }
         public void setStatus(String status) { this.status = status; }
         public String statusReason() { return statusReason; }
@@ -94,15 +89,144 @@ public class PriceComparerLogic {
         public void setOgfPercentageDiff(double ogfPercentageDiff) { this.ogfPercentageDiff = ogfPercentageDiff; }
         public String ogfPercentageRemark() { return ogfPercentageRemark; }
         public void setOgfPercentageRemark(String ogfPercentageRemark) { this.ogfPercentageRemark = ogfPercentageRemark; }
-        public Map<String, Double> locationDiscountPercentages() { return locationDiscountPercentages; }
         public List<String> discountDiscrepancies() { return discountDiscrepancies; }
         public Double referenceDiscountPercentage() { return referenceDiscountPercentage; }
         public void setReferenceDiscountPercentage(Double referenceDiscountPercentage) { this.referenceDiscountPercentage = referenceDiscountPercentage; }
     }
 
+    // NEW: Columnar per-run store for the per-location values of all reference items (replaces the name-keyed
+    // HashMaps each ReferenceItem used to carry). Every distinct location name - plus the reference file, which
+    // can contribute stock - gets an ordinal; each value kind is one primitive array indexed by
+    // slot * width + ordinal. Absent values are NaN (prices, discounts) or NO_STOCK.
+    private static final class LocationStore {
+        static final int NO_STOCK = Integer.MIN_VALUE;
+
+        private final Map<String, Integer> ordinals = new LinkedHashMap<>();
+        private final int width;
+        private double[] prices = new double[0];          // Price column (also the price used for comparison)
+        private double[] compareAtPrices = new double[0]; // Compare at price, 0 when the location has none
+        private double[] discounts = new double[0];       // Discount %, only when above 0.5%
+        private int[] stock = new int[0];
+        private int capacity;
+        private int slots;
+
+        LocationStore(List<String> locationFileNames, String referenceName) {
+            for (String name : locationFileNames) ordinals.putIfAbsent(name, ordinals.size());
+            ordinals.putIfAbsent(referenceName, ordinals.size());
+            this.width = ordinals.size();
+        }
+
+        // Same name = same ordinal, just like the old maps keyed by file name
+        int ordinal(String name) {
+            return ordinals.get(name);
+        }
+
+        int[] ordinals(List<String> names) {
+            int[] result = new int[names.size()];
+            for (int i = 0; i < result.length; i++) result[i] = ordinal(names.get(i));
+            return result;
+        }
+
+        void reserve(int expectedSlots) {
+            if (expectedSlots > capacity) grow(expectedSlots);
+        }
+
+        int newSlot() {
+            if (slots == capacity) grow(Math.max(16, capacity * 2));
+            return slots++;
+        }
+
+        private void grow(int newCapacity) {
+            int oldCells = capacity * width;
+            int newCells = newCapacity * width;
+            prices = Arrays.copyOf(prices, newCells);
+            compareAtPrices = Arrays.copyOf(compareAtPrices, newCells);
+            discounts = Arrays.copyOf(discounts, newCells);
+            stock = Arrays.copyOf(stock, newCells);
+            Arrays.fill(prices, oldCells, newCells, Double.NaN);
+            Arrays.fill(compareAtPrices, oldCells, newCells, Double.NaN);
+            Arrays.fill(discounts, oldCells, newCells, Double.NaN);
+            Arrays.fill(stock, oldCells, newCells, NO_STOCK);
+            capacity = newCapacity;
+        }
+
+        private int cell(int slot, int ordinal) {
+            return slot * width + ordinal;
+        }
+
+        void setPrice(int slot, int ordinal, Double price) {
+            prices[cell(slot, ordinal)] = price != null ? price : Double.NaN;
+        }
+
+        Double price(int slot, int ordinal) {
+            return boxed(prices[cell(slot, ordinal)]);
+        }
+
+        void setCompareAtPrice(int slot, int ordinal, double compareAtPrice) {
+            compareAtPrices[cell(slot, ordinal)] = compareAtPrice;
+        }
+
+        Double compareAtPrice(int slot, int ordinal) {
+            return boxed(compareAtPrices[cell(slot, ordinal)]);
+        }
+
+        // Number of locations with a compare at price for this item (size of the old map)
+        int compareAtPriceCount(int slot) {
+            int count = 0;
+            for (int i = cell(slot, 0), end = i + width; i < end; i++) {
+                if (!Double.isNaN(compareAtPrices[i])) count++;
+            }
+            return count;
+        }
+
+        void setDiscount(int slot, int ordinal, double discount) {
+            discounts[cell(slot, ordinal)] = discount;
+        }
+
+        Double discount(int slot, int ordinal) {
+            return boxed(discounts[cell(slot, ordinal)]);
+        }
+
+        void setStock(int slot, int ordinal, int available) {
+            stock[cell(slot, ordinal)] = available;
+        }
+
+        int totalStock(int slot) {
+            int total = 0;
+            for (int i = cell(slot, 0), end = i + width; i < end; i++) {
+                if (stock[i] != NO_STOCK) total += stock[i];
+            }
+            return total;
+        }
+
+        Set<Map.Entry<String, Integer>> entries() {
+            return ordinals.entrySet();
+        }
+
+        private static Double boxed(double value) {
+            return Double.isNaN(value) ? null : value;
+        }
+    }
+
     // UPDATED: Public Entry Point with original file names map
     public static void generateReport(File referenceFile, List<File> locationFiles, File outputFile,
                                       Map<File, String> originalFileNames) throws IOException {
+        try (ComparisonContext context = new ComparisonContext(true)) {
+            generateReport(referenceFile, locationFiles, outputFile, originalFileNames, context);
+        }
+    }
+
+    // NEW: Request-scoped entry point - temp files for OGF cleanup are owned by the context
+    public static void generateReport(File referenceFile, List<File> locationFiles, File outputFile,
+                                      Map<File, String> originalFileNames, ComparisonContext context) throws IOException {
+        ReportWorkbooks.write(buildReport(referenceFile, locationFiles, originalFileNames, context), outputFile);
+        System.out.println("Price Comparison Complete. Report saved to: " + outputFile.getAbsolutePath());
+    }
+
+    // NEW: Builds the finished report workbook without writing it, so callers can stream it (e.g. into
+    // an HTTP response). The caller must write or release it via ReportWorkbooks.
+    public static Workbook buildReport(File referenceFile, List<File> locationFiles,
+                                       Map<File, String> originalFileNames, ComparisonContext context) throws IOException {
         Map<String, Double> referencePrices = new HashMap<>();
         Map<String, Double> referenceCompareAtPrices = new HashMap<>();
         Map<String, ReferenceItem> reportItems = new LinkedHashMap<>();
@@ -114,30 +238,39 @@ public class PriceComparerLogic {
             locationFileNames.add(originalName);
         }
 
+        // NEW: Per-location values of all items live in one columnar store for this run
+        LocationStore store = new LocationStore(locationFileNames, getOriginalFileName(referenceFile, originalFileNames));
+
         //1. Read Reference File and Initialize Report Map
-        ColumnIndices refIndices = readReferenceData(referenceFile, referencePrices, referenceCompareAtPrices, reportItems, locationFileNames, originalFileNames);
+        ColumnIndices refIndices = readReferenceData(referenceFile, referencePrices, referenceCompareAtPrices, reportItems, store, originalFileNames, context);
 
         if (reportItems.isEmpty() || refIndices == null) {
             System.err.println("ERROR: Could not find required columns or read any data from the Reference File. Check headers.");
-            writeComparisonReport(outputFile, reportItems, locationFileNames);
-            return;
+            return buildComparisonReport(reportItems, locationFileNames, store);
         }
 
         //2. Process and Compare Location Files
-        for (File locationFile : locationFiles) {
-            compareFile(referenceFile, locationFile, referencePrices, reportItems, refIndices, originalFileNames);
+        // NEW: Reading (including OGF SKU cleanup) is independent per file, so it runs on the shared parse pool.
+        // The tables are then merged into the report items one location at a time, in upload order, so
+        // no ReferenceItem is touched by two threads and discrepancy lists keep their order.
+        List<ReportExecutors.ParseTask<LocationTable>> readTasks = new ArrayList<>();
+        for (int i = 0; i < locationFiles.size(); i++) {
+            File locationFile = locationFiles.get(i);
+            String originalFileName = locationFileNames.get(i);
+            readTasks.add(() -> readLocationTable(locationFile, originalFileName, context));
+        }
+        for (LocationTable location : ReportExecutors.invokeAllOrdered(readTasks)) {
+            compareLocation(location, referencePrices, reportItems, store);
         }
 
         //3. Calculate Status for Each Item
-        calculateStatusForItems(reportItems, locationFileNames);
+        calculateStatusForItems(reportItems, locationFileNames, store);
 
         //4. NEW: Calculate total stock for each item
-        calculateTotalStockForItems(reportItems);
+        calculateTotalStockForItems(reportItems, store);
 
-        //5. Write Report
-        writeComparisonReport(outputFile, reportItems, locationFileNames);
-
-        System.out.println("Price Comparison Complete. Report saved to: " + outputFile.getAbsolutePath());
+        //5. Build Report
+        return buildComparisonReport(reportItems, locationFileNames, store);
     }
 
     // UPDATED: Helper method to get original file name using the provided map
@@ -204,30 +337,24 @@ public class PriceComparerLogic {
     private static ColumnIndices readReferenceData(File file, Map<String, Double> prices,
                                                    Map<String, Double> referenceCompareAtPrices,
                                                    Map<String, ReferenceItem> reportItems,
-                                                   List<String> locationFileNames,
-                                                   Map<File, String> originalFileNames) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
-
-            Sheet sheet = workbook.getSheetAt(0);
-            ColumnIndices indices = findHeaderIndices(sheet);
+                                                   LocationStore store,
+                                                   Map<File, String> originalFileNames,
+                                                   ComparisonContext context) throws IOException {
+        try {
+            PriceTable table = readPriceTable(file, context);
+            ColumnIndices indices = table.indices();
             if (indices == null) return null;
+            store.reserve(table.rows().size());
+            // UPDATED: Use the original file name from the map
+            int referenceOrdinal = store.ordinal(getOriginalFileName(file, originalFileNames));
 
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
-
-                String sku = getCellValue(row.getCell(indices.skuCol())).toUpperCase();
-                String name = getCellValue(row.getCell(indices.nameCol()));
+            for (PriceRow row : table.rows()) {
+                String sku = row.sku();
+                String name = row.name();
 
                 // Get both Price and Compare at price
-                Double price = getEnhancedNumericCellValue(row.getCell(indices.priceCol()));
-                Double compareAtPrice = null;
-
-                // Get Compare at price if column exists
-                if (indices.comparedPriceCol() >= 0) {
-                    compareAtPrice = getEnhancedNumericCellValue(row.getCell(indices.comparedPriceCol()));
-                }
+                Double price = row.price();
+                Double compareAtPrice = row.compareAtPrice();
 
                 // If compare at price is null or 0, it means no promotion
                 if (compareAtPrice == null || compareAtPrice == 0) {
@@ -243,18 +370,14 @@ public class PriceComparerLogic {
                 if (!sku.isEmpty() && price != null) {
                     prices.put(sku, price);
                     referenceCompareAtPrices.put(sku, compareAtPrice);
-                    Map<String, Double> locPrices = new HashMap<>();
-                    locationFileNames.forEach(locName -> locPrices.put(locName, null));
-
-                    ReferenceItem item = new ReferenceItem(sku, name, price, compareAtPrice, new ArrayList<>(), locPrices, "");
+                    ReferenceItem item = new ReferenceItem(sku, name, price, compareAtPrice, new ArrayList<>(), store.newSlot(), "");
                     item.setReferenceDiscountPercentage(refDiscount);
 
                     // NEW: Read stock from reference file if available
                     if (indices.availableCol() >= 0) {
-                        Integer stock = getIntegerCellValue(row.getCell(indices.availableCol()));
+                        Integer stock = row.stock();
                         if (stock != null) {
-                            // UPDATED: Use the original file name from the map
-                            item.locationStock().put(getOriginalFileName(file, originalFileNames), stock);
+                            store.setStock(item.slot(), referenceOrdinal, stock);
                         }
                     }
 
@@ -269,254 +392,268 @@ public class PriceComparerLogic {
         }
     }
 
-    // UPDATED: Added originalFileNames parameter
-    private static void compareFile(File refFile, File locationFile, Map<String, Double> referencePrices,
-                                    Map<String, ReferenceItem> reportItems, ColumnIndices refIndices,
-                                    Map<File, String> originalFileNames) throws IOException {
-        String originalFileName = getOriginalFileName(locationFile, originalFileNames);
-        boolean isOgfFile = originalFileName.toLowerCase().contains("ogf");
+    // NEW: Parses a price export once per distinct file content; repeat uploads come from ParsedInputCache
+    private static PriceTable readPriceTable(File file, ComparisonContext context) throws IOException {
+        return ParsedInputCache.get(file, context.contentHash(file), "price-table", PriceComparerLogic::parsePriceTable,
+                table -> 64L + table.rows().stream().mapToLong(PriceComparerLogic::estimateRowBytes).sum());
+    }
 
-        if (isOgfFile) {
-            // For OGF files, clean up SKUs first using FileProcessor
-            File fileToCompare = FileProccessor.cleanupSkuForPriceComparison(locationFile);
-            // Store the original name for the temp file in the map
-            originalFileNames.put(fileToCompare, originalFileName);
-
-            try {
-                // For OGF files, apply special 15-20% rule
-                performOgfComparison(originalFileName, fileToCompare, referencePrices, reportItems, originalFileNames);
-            } finally {
-                // Clean up the temporary file
-                FileProccessor.cleanUpTempFiles(Collections.singletonList(fileToCompare));
-                originalFileNames.remove(fileToCompare);
-            }
-        } else {
-            // For non-OGF files, use Compare at price if available, otherwise use Price
-            performRegularComparison(originalFileName, locationFile, referencePrices, reportItems, originalFileNames);
-        }
+    // NEW: OGF exports get their own cache entry, since their rows are normalized while parsing
+    private static PriceTable readOgfPriceTable(File file, ComparisonContext context) throws IOException {
+        return ParsedInputCache.get(file, context.contentHash(file), "price-table-ogf", PriceComparerLogic::parseOgfPriceTable,
+                table -> 64L + table.rows().stream().mapToLong(PriceComparerLogic::estimateRowBytes).sum());
     }
 
-    // UPDATED: Added originalFileNames parameter (though not used in this method, for consistency)
-    private static void performOgfComparison(String originalFileName, File file, Map<String, Double> refPrices,
-                                             Map<String, ReferenceItem> reportItems,
-                                             Map<File, String> originalFileNames) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
+    private static PriceTable parsePriceTable(File file) throws IOException {
+        return parsePriceTable(file, false);
+    }
 
+    private static PriceTable parseOgfPriceTable(File file) throws IOException {
+        return parsePriceTable(file, true);
+    }
+
+    // UPDATED: For OGF exports each row goes through the OGF transform on the way in (this replaces the
+    // cleaned temp workbook that used to be written and parsed again): cells are read as their displayed
+    // text - which is what the cleaned copy stored - and the OGF marker is stripped from the SKU.
+    private static PriceTable parsePriceTable(File file, boolean ogf) throws IOException {
+        try (Workbook workbook = WorkbookSources.openReadOnly(file)) {
             Sheet sheet = workbook.getSheetAt(0);
-            ColumnIndices locIndices = findHeaderIndices(sheet);
-            if (locIndices == null) {
-                System.err.println("Skipping " + originalFileName + ": Could not find required headers.");
-                return;
-            }
+            ColumnIndices indices = findHeaderIndices(sheet);
+            if (indices == null) return new PriceTable(null, List.of());
 
+            List<PriceRow> rows = new ArrayList<>();
+            int missingOgfPrefix = 0;
             for (int i = 1; i <= sheet.getLastRowNum(); i++) {
                 Row row = sheet.getRow(i);
                 if (row == null) continue;
 
-                String sku = getCellValue(row.getCell(locIndices.skuCol())).toUpperCase();
+                if (ogf) {
+                    String rawSku = displayedValue(row.getCell(indices.skuCol()));
+                    if (!rawSku.isEmpty() && !FileProccessor.hasOgfPrefix(rawSku)) missingOgfPrefix++;
+                    rows.add(readOgfRow(row, indices, FileProccessor.cleanOgfSku(rawSku).trim().toUpperCase()));
+                    continue;
+                }
 
-                // Get both Price and Compare at price
-                Double locationPrice = getEnhancedNumericCellValue(row.getCell(locIndices.priceCol()));
-                Double compareAtPrice = null;
+                String sku = getCellValue(row.getCell(indices.skuCol())).toUpperCase();
+                if (sku.isEmpty()) continue;
 
-                // Check if Compare at price column exists and has value
-                if (locIndices.comparedPriceCol() >= 0) {
-                    compareAtPrice = getEnhancedNumericCellValue(row.getCell(locIndices.comparedPriceCol()));
+                String name = getCellValue(row.getCell(indices.nameCol()));
+                Double price = getEnhancedNumericCellValue(row.getCell(indices.priceCol()));
+                Double compareAtPrice = indices.comparedPriceCol() >= 0
+                        ? getEnhancedNumericCellValue(row.getCell(indices.comparedPriceCol())) : null;
+                Integer stock = indices.availableCol() >= 0
+                        ? getIntegerCellValue(row.getCell(indices.availableCol())) : null;
+                rows.add(new PriceRow(sku, name, price, compareAtPrice, stock));
+            }
+            if (ogf) {
+                rows.removeIf(row -> row.sku().isEmpty());
+                if (missingOgfPrefix > 0) {
+                    System.out.println("⚠️ " + missingOgfPrefix + " SKU(s) without OGF- prefix in " + file.getName());
                 }
+            }
+            return new PriceTable(indices, List.copyOf(rows));
+        }
+    }
 
-                // NEW: Get available stock
-                Integer availableStock = null;
-                if (locIndices.availableCol() >= 0) {
-                    availableStock = getIntegerCellValue(row.getCell(locIndices.availableCol()));
-                }
+    // NEW: One OGF row, every value parsed from its displayed text
+    private static PriceRow readOgfRow(Row row, ColumnIndices indices, String sku) {
+        String name = displayedValue(row.getCell(indices.nameCol())).trim();
+        Double price = parseFormattedNumber(displayedValue(row.getCell(indices.priceCol())).trim());
+        Double compareAtPrice = indices.comparedPriceCol() >= 0
+                ? parseFormattedNumber(displayedValue(row.getCell(indices.comparedPriceCol())).trim()) : null;
+        Integer stock = indices.availableCol() >= 0
+                ? parseFormattedInteger(displayedValue(row.getCell(indices.availableCol())).trim()) : null;
+        return new PriceRow(sku, name, price, compareAtPrice, stock);
+    }
 
-                if (!sku.isEmpty() && reportItems.containsKey(sku)) {
-                    Double referencePrice = refPrices.get(sku);
-                    ReferenceItem item = reportItems.get(sku);
-
-                    // Store both price values using original file name
-                    item.locationPrices().put(originalFileName, locationPrice);
-                    double ogfCompareAt = (compareAtPrice != null) ? compareAtPrice : 0.0;
-                    item.locationCompareAtPrices().put(originalFileName, ogfCompareAt);
-
-                    // FIX: Only flag if OGF actually has a discount (compareAtPrice > price)
-                    if (locationPrice != null && ogfCompareAt > 0.01 && ogfCompareAt > locationPrice) {
-                        String disc = String.format(
-                                "%s: OGF discount detected (Price Rs.%.2f, Compare at Rs.%.2f)",
-                                originalFileName, locationPrice, ogfCompareAt
-                        );
-                        item.discrepancies().add(disc);
-                        // optional: keep it grouped under OGF Differences in the report
-                        item.ogfDiscrepancies().add(disc);
-                    }
+    private static String displayedValue(Cell cell) {
+        return cell == null ? "" : dataFormatter.get().formatCellValue(cell);
+    }
 
-                    // NEW: Calculate and store discount percentage
-                    if (compareAtPrice != null && locationPrice != null && compareAtPrice > 0) {
-                        double discount = ((compareAtPrice - locationPrice) / compareAtPrice) * 100;
+    // Rough heap footprint of a cached row: object headers, boxed numbers and the two strings
+    private static long estimateRowBytes(PriceRow row) {
+        return 120L + 2L * (row.sku().length() + (row.name() != null ? row.name().length() : 0));
+    }
 
-                        // Only store if there's a meaningful discount (> 0.5%)
-                        if (Math.abs(discount) > 0.5) {
-                            item.locationDiscountPercentages().put(originalFileName, discount);
-                        }
-                    }
+    // NEW: Reads one location export; OGF files have their SKUs cleaned row by row while parsing.
+    // Runs on a parse thread, so it only touches its own file.
+    private static LocationTable readLocationTable(File locationFile, String originalFileName,
+                                                   ComparisonContext context) throws IOException {
+        boolean isOgfFile = originalFileName.toLowerCase().contains("ogf");
+        PriceTable table = isOgfFile ? readOgfPriceTable(locationFile, context) : readPriceTable(locationFile, context);
+        return new LocationTable(originalFileName, isOgfFile, table);
+    }
 
-                    // NEW: Store available stock
-                    if (availableStock != null) {
-                        item.locationStock().put(originalFileName, availableStock);
-                    }
+    // UPDATED: Merges an already-read location table into the report items (was compareFile)
+    private static void compareLocation(LocationTable location, Map<String, Double> referencePrices,
+                                        Map<String, ReferenceItem> reportItems, LocationStore store) {
+        if (location.table().indices() == null) {
+            System.err.println("Skipping " + location.originalFileName() + ": Could not find required headers.");
+            return;
+        }
 
-                    //For OGF, always use Price column for comparison (not Compare at price)
-                    Double priceToUse = locationPrice;
+        if (location.ogf()) {
+            // For OGF files, apply special 15-20% rule
+            performOgfComparison(location.originalFileName(), location.table(), referencePrices, reportItems, store);
+        } else {
+            // For non-OGF files, use Compare at price if available, otherwise use Price
+            performRegularComparison(location.originalFileName(), location.table(), referencePrices, reportItems, store);
+        }
+    }
 
-                    // Store which price we actually used for comparison
-                    item.locationPricesUsed().put(originalFileName, priceToUse);
+    // UPDATED: Works on the parsed table of one location file
+    private static void performOgfComparison(String originalFileName, PriceTable table, Map<String, Double> refPrices,
+                                             Map<String, ReferenceItem> reportItems, LocationStore store) {
+        int ordinal = store.ordinal(originalFileName);
+        for (PriceRow row : table.rows()) {
+            String sku = row.sku();
+
+            // Get both Price and Compare at price (null if the column is missing)
+            Double locationPrice = row.price();
+            Double compareAtPrice = row.compareAtPrice();
+
+            // NEW: Get available stock
+            Integer availableStock = row.stock();
+
+            if (!sku.isEmpty() && reportItems.containsKey(sku)) {
+                Double referencePrice = refPrices.get(sku);
+                ReferenceItem item = reportItems.get(sku);
+
+                // Store both price values using original file name
+                store.setPrice(item.slot(), ordinal, locationPrice);
+                double ogfCompareAt = (compareAtPrice != null) ? compareAtPrice : 0.0;
+                store.setCompareAtPrice(item.slot(), ordinal, ogfCompareAt);
+
+                // FIX: Only flag if OGF actually has a discount (compareAtPrice > price)
+                if (locationPrice != null && ogfCompareAt > 0.01 && ogfCompareAt > locationPrice) {
+                    String disc = String.format(
+                            "%s: OGF discount detected (Price Rs.%.2f, Compare at Rs.%.2f)",
+                            originalFileName, locationPrice, ogfCompareAt
+                    );
+                    item.discrepancies().add(disc);
+                    // optional: keep it grouped under OGF Differences in the report
+                    item.ogfDiscrepancies().add(disc);
+                }
+
+                // NEW: Calculate and store discount percentage
+                if (compareAtPrice != null && locationPrice != null && compareAtPrice > 0) {
+                    double discount = ((compareAtPrice - locationPrice) / compareAtPrice) * 100;
 
-                    // Calculate and store Compare at price difference (if both prices exist)
-                    if (compareAtPrice != null && locationPrice != null) {
-                        double compareAtDifference = compareAtPrice - locationPrice;
-                        item.compareAtPriceDifferences().put(originalFileName, compareAtDifference);
+                    // Only store if there's a meaningful discount (> 0.5%)
+                    if (Math.abs(discount) > 0.5) {
+                        store.setDiscount(item.slot(), ordinal, discount);
                     }
+                }
 
-                    // For OGF files, check if price is LESS THAN 15% of reference price
-                    if (priceToUse != null && referencePrice != null && referencePrice > 0) {
-                        double percentageDiff = ((priceToUse - referencePrice) / referencePrice) * 100;
+                // NEW: Store available stock
+                if (availableStock != null) {
+                    store.setStock(item.slot(), ordinal, availableStock);
+                }
 
-                        // Check if LESS THAN 15%
-                        if (percentageDiff < 22.0) {
-                            String priceType = (compareAtPrice != null) ? "Compare at price" : "Price";
-                            // Also added percentage value to the discrepancy message
-                            String discrepancy = String.format("%s: Below 22%% range (%.2f%%) (%s)",
-                                    originalFileName, percentageDiff, priceType);
-                            item.discrepancies().add(discrepancy);
-                        }
+                //For OGF, always use Price column for comparison (not Compare at price)
+                Double priceToUse = locationPrice;
+
+                // For OGF files, check if price is LESS THAN 15% of reference price
+                if (priceToUse != null && referencePrice != null && referencePrice > 0) {
+                    double percentageDiff = ((priceToUse - referencePrice) / referencePrice) * 100;
+
+                    // Check if LESS THAN 15%
+                    if (percentageDiff < 22.0) {
+                        String priceType = (compareAtPrice != null) ? "Compare at price" : "Price";
+                        // Also added percentage value to the discrepancy message
+                        String discrepancy = String.format("%s: Below 22%% range (%.2f%%) (%s)",
+                                originalFileName, percentageDiff, priceType);
+                        item.discrepancies().add(discrepancy);
                     }
                 }
             }
         }
     }
 
-    // UPDATED: Added originalFileNames parameter (though not used in this method, for consistency)
-    private static void performRegularComparison(String originalFileName, File file, Map<String, Double> refPrices,
-                                                 Map<String, ReferenceItem> reportItems,
-                                                 Map<File, String> originalFileNames) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
-
-            Sheet sheet = workbook.getSheetAt(0);
-            ColumnIndices locIndices = findHeaderIndices(sheet);
-            if (locIndices == null) {
-                System.err.println("Skipping " + originalFileName + ": Could not find required headers.");
-                return;
-            }
-
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
+    // UPDATED: Works on the parsed table of one location file
+    private static void performRegularComparison(String originalFileName, PriceTable table, Map<String, Double> refPrices,
+                                                 Map<String, ReferenceItem> reportItems, LocationStore store) {
+        int ordinal = store.ordinal(originalFileName);
+        for (PriceRow row : table.rows()) {
+            String sku = row.sku();
 
-                String sku = getCellValue(row.getCell(locIndices.skuCol())).toUpperCase();
+            // Get both Price and Compare at price (null if the column is missing)
+            Double locationPrice = row.price();
+            Double compareAtPrice = row.compareAtPrice();
 
-                // Get both Price and Compare at price
-                Double locationPrice = getEnhancedNumericCellValue(row.getCell(locIndices.priceCol()));
-                Double compareAtPrice = null;
+            // NEW: Get available stock
+            Integer availableStock = row.stock();
 
-                // Check if Compare at price column exists and has value
-                if (locIndices.comparedPriceCol() >= 0) {
-                    compareAtPrice = getEnhancedNumericCellValue(row.getCell(locIndices.comparedPriceCol()));
-                }
+            if (!sku.isEmpty() && reportItems.containsKey(sku)) {
+                Double referencePrice = refPrices.get(sku);
+                ReferenceItem item = reportItems.get(sku);
 
-                // NEW: Get available stock
-                Integer availableStock = null;
-                if (locIndices.availableCol() >= 0) {
-                    availableStock = getIntegerCellValue(row.getCell(locIndices.availableCol()));
+                // Store both price values using original file name
+                store.setPrice(item.slot(), ordinal, locationPrice);
+                if (compareAtPrice != null) {
+                    store.setCompareAtPrice(item.slot(), ordinal, compareAtPrice);
+                } else {
+                    // If compare at price is null, set it to 0 (meaning no promotion)
+                    store.setCompareAtPrice(item.slot(), ordinal, 0.0); // CHANGE #4: Show 0 instead of null
                 }
 
-                if (!sku.isEmpty() && reportItems.containsKey(sku)) {
-                    Double referencePrice = refPrices.get(sku);
-                    ReferenceItem item = reportItems.get(sku);
+                // NEW: Calculate and store discount percentage
+                if (compareAtPrice != null && locationPrice != null && compareAtPrice > 0) {
+                    double discount = ((compareAtPrice - locationPrice) / compareAtPrice) * 100;
 
-                    // Store both price values using original file name
-                    item.locationPrices().put(originalFileName, locationPrice);
-                    if (compareAtPrice != null) {
-                        item.locationCompareAtPrices().put(originalFileName, compareAtPrice);
-                    } else {
-                        // If compare at price is null, set it to 0 (meaning no promotion)
-                        item.locationCompareAtPrices().put(originalFileName, 0.0); // CHANGE #4: Show 0 instead of null
+                    // Only store if there's a meaningful discount (> 0.5%)
+                    if (Math.abs(discount) > 0.5) {
+                        store.setDiscount(item.slot(), ordinal, discount);
                     }
+                }
 
-                    // NEW: Calculate and store discount percentage
-                    if (compareAtPrice != null && locationPrice != null && compareAtPrice > 0) {
-                        double discount = ((compareAtPrice - locationPrice) / compareAtPrice) * 100;
-
-                        // Only store if there's a meaningful discount (> 0.5%)
-                        if (Math.abs(discount) > 0.5) {
-                            item.locationDiscountPercentages().put(originalFileName, discount);
-                        }
-                    }
-
-                    // NEW: Store available stock
-                    if (availableStock != null) {
-                        item.locationStock().put(originalFileName, availableStock);
-                    }
-
-                    // For non-OGF files, always use Price column for comparison (not Compare at price)
-                    Double priceToUse = locationPrice;
-
-                    // Store which price we actually used for comparison
-                    item.locationPricesUsed().put(originalFileName, priceToUse);
-
-                    // Calculate and store Compare at price difference (if both prices exist)
-                    if (compareAtPrice != null && locationPrice != null) {
-                        double compareAtDifference = compareAtPrice - locationPrice;
-                        item.compareAtPriceDifferences().put(originalFileName, compareAtDifference);
-                    }
+                // NEW: Store available stock
+                if (availableStock != null) {
+                    store.setStock(item.slot(), ordinal, availableStock);
+                }
 
-                    // Compare the selected price with reference price
-                    if (priceToUse != null && referencePrice != null &&
-                            Math.abs(priceToUse - referencePrice) > 0.01) {
-                        double difference = priceToUse - referencePrice;
-                        String sign = difference > 0 ? "+" : "-";
-                        String priceType = (compareAtPrice != null) ? "Compare at price" : "Price";
-                        String discrepancy = String.format("%s: %sRs.%.2f (%s)",
-                                originalFileName, sign, Math.abs(difference), priceType);
-                        item.discrepancies().add(discrepancy);
-                    }
+                // For non-OGF files, always use Price column for comparison (not Compare at price)
+                Double priceToUse = locationPrice;
+
+                // Compare the selected price with reference price
+                if (priceToUse != null && referencePrice != null &&
+                        Math.abs(priceToUse - referencePrice) > 0.01) {
+                    double difference = priceToUse - referencePrice;
+                    String sign = difference > 0 ? "+" : "-";
+                    String priceType = (compareAtPrice != null) ? "Compare at price" : "Price";
+                    String discrepancy = String.format("%s: %sRs.%.2f (%s)",
+                            originalFileName, sign, Math.abs(difference), priceType);
+                    item.discrepancies().add(discrepancy);
                 }
             }
         }
     }
 
     // NEW: Method to calculate total stock for each item
-    private static void calculateTotalStockForItems(Map<String, ReferenceItem> reportItems) {
+    private static void calculateTotalStockForItems(Map<String, ReferenceItem> reportItems, LocationStore store) {
         for (ReferenceItem item : reportItems.values()) {
-            int totalStock = 0;
-
-            // Sum up stock from all locations
-            for (Integer stock : item.locationStock().values()) {
-                if (stock != null) {
-                    totalStock += stock;
-                }
-            }
-
-            item.setTotalStock(totalStock);
+            // Sum up stock from all locations (and the reference file)
+            item.setTotalStock(store.totalStock(item.slot()));
         }
     }
 
     // NEW: Method to check discount consistency across companies
-    private static void checkDiscountConsistency(ReferenceItem item, List<String> locationFileNames) {
+    private static void checkDiscountConsistency(ReferenceItem item, List<String> locationFileNames,
+                                                 int[] locationOrdinals, LocationStore store) {
         item.discountDiscrepancies().clear();
 
         // Track discount status for each company
         Map<String, Boolean> hasDiscount = new HashMap<>();
         Map<String, Double> discountValues = new HashMap<>();
 
-        for (String locName : locationFileNames) {
+        for (int i = 0; i < locationFileNames.size(); i++) {
+            String locName = locationFileNames.get(i);
             // FIX: exclude OGF from discount-uniformity comparisons
             if (locName != null && locName.toLowerCase().contains("ogf")) {
                 // But still allow OGF discount to be flagged elsewhere (we did that in performOgfComparison)
                 continue;
             }
-            Double discount = item.locationDiscountPercentages().get(locName);
+            Double discount = store.discount(item.slot(), locationOrdinals[i]);
             boolean hasDisc = (discount != null && Math.abs(discount) > 0.5);
             hasDiscount.put(locName, hasDisc);
             if (hasDisc) {
@@ -571,7 +708,9 @@ public class PriceComparerLogic {
         }
     }
 
-    private static void calculateStatusForItems(Map<String, ReferenceItem> reportItems, List<String> locationFileNames) {
+    private static void calculateStatusForItems(Map<String, ReferenceItem> reportItems, List<String> locationFileNames,
+                                                LocationStore store) {
+        int[] locationOrdinals = store.ordinals(locationFileNames);
         for (ReferenceItem item : reportItems.values()) {
             List<String> ogfDifferences = new ArrayList<>();
             List<String> nonOgfDifferences = new ArrayList<>();
@@ -579,13 +718,13 @@ public class PriceComparerLogic {
             List<String> compareAtDiffFiles = new ArrayList<>();
 
             // Analyze Compare at price consistency across files
-            Map<String, Double> compareAtPrices = item.locationCompareAtPrices();
-            boolean hasCompareAtPrices = !compareAtPrices.isEmpty();
+            int compareAtPriceCount = store.compareAtPriceCount(item.slot());
+            boolean hasCompareAtPrices = compareAtPriceCount > 0;
             List<String> compareAtConsistencyIssues = new ArrayList<>();
 
-            if (hasCompareAtPrices && compareAtPrices.size() > 1) {
+            if (hasCompareAtPrices && compareAtPriceCount > 1) {
                 // Check for differences in Compare at price margins across files
-                analyzeCompareAtPriceMargins(item, compareAtConsistencyIssues, compareAtDiffFiles);
+                analyzeCompareAtPriceMargins(item, store, compareAtConsistencyIssues, compareAtDiffFiles);
             }
 
             // Track OGF price and percentage difference
@@ -594,8 +733,10 @@ public class PriceComparerLogic {
             String ogfFileName = "";
 
             // Check ALL location files for price differences using the actual prices used for comparison
-            for (String fileName : locationFileNames) {
-                Double priceUsed = item.locationPricesUsed().get(fileName);
+            for (int i = 0; i < locationFileNames.size(); i++) {
+                String fileName = locationFileNames.get(i);
+                int ordinal = locationOrdinals[i];
+                Double priceUsed = store.price(item.slot(), ordinal);
                 boolean isOgfFile = fileName.toLowerCase().contains("ogf");
 
                 if (priceUsed != null) {
@@ -633,7 +774,7 @@ public class PriceComparerLogic {
 
                             if (!hasDiscrepancy) {
                                 // UPDATED: Remove exact percentage from remark
-                                Double compareAtPrice = item.locationCompareAtPrices().get(fileName);
+                                Double compareAtPrice = store.compareAtPrice(item.slot(), ordinal);
                                 String priceType = (compareAtPrice != null) ? "Compare at price" : "Price";
                                 String discrepancy = String.format("%s: Below 22%% range (%s)",
                                         fileName, priceType);
@@ -654,7 +795,7 @@ public class PriceComparerLogic {
                             if (!hasDiscrepancy) {
                                 double difference = priceUsed - item.referencePrice();
                                 String sign = difference > 0 ? "+" : "-";
-                                Double compareAtPrice = item.locationCompareAtPrices().get(fileName);
+                                Double compareAtPrice = store.compareAtPrice(item.slot(), ordinal);
                                 String priceType = (compareAtPrice != null) ? "Compare at price" : "Price";
                                 String discrepancy = String.format("%s: %sRs.%.2f (%s)",
                                         fileName, sign, Math.abs(difference), priceType);
@@ -694,7 +835,7 @@ public class PriceComparerLogic {
             }
 
             // NEW: Check discount consistency (add this after analyzing price differences)
-            checkDiscountConsistency(item, locationFileNames);
+            checkDiscountConsistency(item, locationFileNames, locationOrdinals, store);
 
             String status;
             List<String> statusReasons = new ArrayList<>();
@@ -761,10 +902,11 @@ public class PriceComparerLogic {
 
             // Check for price differences in non-OGF files
             List<String> nonOgfDifferenceFiles = new ArrayList<>();
-            for (String fileName : locationFileNames) {
+            for (int i = 0; i < locationFileNames.size(); i++) {
+                String fileName = locationFileNames.get(i);
                 if (fileName.toLowerCase().contains("ogf")) continue;
 
-                Double priceUsed = item.locationPricesUsed().get(fileName);
+                Double priceUsed = store.price(item.slot(), locationOrdinals[i]);
 
                 if (priceUsed != null && Math.abs(priceUsed - item.referencePrice()) > 0.01) {
                     nonOgfDifferenceFiles.add(fileName);
@@ -834,20 +976,18 @@ public class PriceComparerLogic {
         return String.join("; ", explanations);
     }
 
-    private static void analyzeCompareAtPriceMargins(ReferenceItem item, List<String> consistencyIssues, List<String> compareAtDiffFiles) {
-        Map<String, Double> compareAtPrices = item.locationCompareAtPrices();
-        Map<String, Double> regularPrices = item.locationPrices();
-
+    private static void analyzeCompareAtPriceMargins(ReferenceItem item, LocationStore store,
+                                                     List<String> consistencyIssues, List<String> compareAtDiffFiles) {
         // Calculate margins (difference between compare at price and regular price) for each file
         Map<String, Double> margins = new HashMap<>();
-        for (Map.Entry<String, Double> entry : compareAtPrices.entrySet()) {
-            String fileName = entry.getKey();
+        for (Map.Entry<String, Integer> location : store.entries()) {
+            String fileName = location.getKey();
 
             // NEW: Ignore OGF for compare-at-price consistency checks
             if (fileName != null && fileName.toLowerCase().contains("ogf")) continue;
 
-            Double compareAtPrice = entry.getValue();
-            Double regularPrice = regularPrices.get(fileName);
+            Double compareAtPrice = store.compareAtPrice(item.slot(), location.getValue());
+            Double regularPrice = store.price(item.slot(), location.getValue());
 
             if (regularPrice != null && compareAtPrice != null) {
                 double margin = compareAtPrice - regularPrice;
@@ -901,7 +1041,7 @@ public class PriceComparerLogic {
     }
 
     // Helper method to get discount summary
-    private static String getDiscountSummary(ReferenceItem item, List<String> locationFileNames) {
+    private static String getDiscountSummary(ReferenceItem item, List<String> locationFileNames, LocationStore store) {
         List<String> issues = new ArrayList<>();
 
         // Track which companies have discounts
@@ -909,7 +1049,7 @@ public class PriceComparerLogic {
         List<String> withoutDiscount = new ArrayList<>();
 
         for (String locName : locationFileNames) {
-            Double discount = item.locationDiscountPercentages().get(locName);
+            Double discount = store.discount(item.slot(), store.ordinal(locName));
             String cleanName = locName.replace(".xlsx", "").replace(".xls", "");
 
             if (discount != null && Math.abs(discount) > 0.5) {
@@ -931,9 +1071,10 @@ public class PriceComparerLogic {
         }
     }
 
-    private static void writeComparisonReport(File outputFile, Map<String, ReferenceItem> reportItems,
-                                              List<String> locationFileNames) throws IOException {
-        try (Workbook workbook = new XSSFWorkbook()) {
+    private static Workbook buildComparisonReport(Map<String, ReferenceItem> reportItems,
+                                                  List<String> locationFileNames, LocationStore store) {
+        Workbook workbook = new XSSFWorkbook();
+        try {
             Sheet sheet = workbook.createSheet("Price Comparison Report");
 
             // Create header row
@@ -951,6 +1092,7 @@ public class PriceComparerLogic {
             Map<String, Integer> sellingPriceColMap = new HashMap<>();
             Map<String, Integer> originalPriceColMap = new HashMap<>();
             Map<String, Integer> discountColMap = new HashMap<>();
+            int[] locationOrdinals = store.ordinals(locationFileNames);
 
             for (String locName : locationFileNames) {
                 String displayName = locName.replace(".xlsx", "").replace(".xls", "");
@@ -991,6 +1133,10 @@ public class PriceComparerLogic {
             headerRow.createCell(colIndex++).setCellValue("Discount Issues");
             int discountIssuesColIndex = colIndex - 1;
 
+            // Column widths estimated from text length while writing (replaces autoSizeColumn)
+            ColumnWidthTracker columnWidths = new ColumnWidthTracker();
+            columnWidths.track(headerRow);
+
             // Data rows
             int rowNum = 1;
             for (ReferenceItem item : reportItems.values()) {
@@ -1009,15 +1155,16 @@ public class PriceComparerLogic {
                 }
 
                 // For each location, show all price info
-                for (String locName : locationFileNames) {
+                for (int i = 0; i < locationFileNames.size(); i++) {
+                    String locName = locationFileNames.get(i);
                     int sellingCol = sellingPriceColMap.get(locName);
                     int originalCol = originalPriceColMap.get(locName);
                     int discountCol = discountColMap.get(locName);
 
-                    // Get prices from existing fields
-                    Double sellingPrice = item.locationPrices().get(locName);
-                    Double originalPrice = item.locationCompareAtPrices().get(locName);
-                    Double discount = item.locationDiscountPercentages().get(locName);
+                    // Read prices straight from the run's columnar store
+                    Double sellingPrice = store.price(item.slot(), locationOrdinals[i]);
+                    Double originalPrice = store.compareAtPrice(item.slot(), locationOrdinals[i]);
+                    Double discount = store.discount(item.slot(), locationOrdinals[i]);
 
                     // Fill selling price (always show if available)
                     if (sellingPrice != null) {
@@ -1062,16 +1209,15 @@ public class PriceComparerLogic {
                         ? "No discount issues"
                         : String.join("\n", item.discountDiscrepancies());
                 row.createCell(discountIssuesColIndex).setCellValue(discountIssues);
+                columnWidths.track(row);
             }
 
-            // Auto-size columns
-            for (int i = 0; i < colIndex; i++) {
-                sheet.autoSizeColumn(i);
-            }
-
-            try (FileOutputStream fileOut = new FileOutputStream(outputFile)) {
-                workbook.write(fileOut);
-            }
+            // Size columns
+            columnWidths.apply(sheet);
+            return workbook;
+        } catch (RuntimeException e) {
+            ReportWorkbooks.release(workbook);
+            throw e;
         }
     }
 
@@ -0,0 +1,102 @@
+// File: ReportExecutors.java
+package com.example.InventoryComparer.logic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Shared, bounded worker pools for the CPU-bound parts of report generation (workbook parsing and
+ * per-item evaluation). All concurrent requests share the same pools, so the thread count never exceeds the limit.
+ */
+final class ReportExecutors {
+
+    // Override with -Dcomparer.parseThreads=N
+    static final int PARSE_THREADS = Math.max(1,
+            Integer.getInteger("comparer.parseThreads", Runtime.getRuntime().availableProcessors()));
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final ExecutorService parsePool = Executors.newFixedThreadPool(PARSE_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "report-parse-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Fork-join pool for per-item evaluation stages, kept off the common pool
+    private static final ForkJoinPool evaluationPool = new ForkJoinPool(PARSE_THREADS);
+
+    /** A parsing task that may fail with an IOException. */
+    interface ParseTask<T> {
+        T call() throws IOException;
+    }
+
+    private ReportExecutors() {}
+
+    /**
+     * Runs all tasks on the parse pool and returns their results in the same order as the tasks.
+     * The first failure (in task order) is rethrown; tasks must not submit further work to this pool.
+     */
+    static <T> List<T> invokeAllOrdered(List<? extends ParseTask<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.size() <= 1 || PARSE_THREADS == 1) {
+            for (ParseTask<T> task : tasks) results.add(task.call());
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (ParseTask<T> task : tasks) {
+            Callable<T> callable = task::call;
+            futures.add(parsePool.submit(callable));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing input files", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof UncheckedIOException unchecked) throw unchecked.getCause();
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            if (cause instanceof Error error) throw error;
+            throw new IOException(cause);
+        } finally {
+            for (Future<T> future : futures) future.cancel(true);
+        }
+        return results;
+    }
+
+    /**
+     * Applies the action to every item, on the fork-join pool when there are at least {@code threshold} items.
+     * The action must only touch its own item; it must not depend on the order in which items are processed.
+     */
+    static <T> void forEachParallel(List<T> items, int threshold, Consumer<? super T> action) {
+        if (items.size() < threshold || PARSE_THREADS == 1) {
+            items.forEach(action);
+            return;
+        }
+        try {
+            evaluationPool.submit(() -> items.parallelStream().forEach(action)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating report items", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            if (cause instanceof Error error) throw error;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+// File: ReportWorkbooks.java
+package com.example.InventoryComparer.logic;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writing and releasing of generated report workbooks.
+ * The comparers' buildReport methods return a finished workbook; callers write it to a file or straight
+ * into an HTTP response with one of these methods, which always release the workbook afterwards.
+ */
+public final class ReportWorkbooks {
+
+    private ReportWorkbooks() {}
+
+    /** Writes the workbook to the stream (which is left open) and releases the workbook. */
+    public static void write(Workbook workbook, OutputStream out) throws IOException {
+        try {
+            workbook.write(out);
+            out.flush();
+        } finally {
+            release(workbook);
+        }
+    }
+
+    /** Writes the workbook to the file and releases the workbook. */
+    public static void write(Workbook workbook, File output) throws IOException {
+        FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(output);
+        } catch (IOException e) {
+            release(workbook); // write(workbook, fos) below releases it on every other path
+            throw e;
+        }
+        try (fos) {
+            write(workbook, fos);
+        }
+    }
+
+    /** Closes the workbook; SXSSF workbooks also get their temp files (flushed rows) deleted. */
+    public static void release(Workbook workbook) {
+        if (workbook == null) return;
+        if (workbook instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) workbook).dispose();
+        }
+        try {
+            workbook.close();
+        } catch (IOException e) {
+            System.err.println("Could not close report workbook: " + e.getMessage());
+        }
+    }
+}
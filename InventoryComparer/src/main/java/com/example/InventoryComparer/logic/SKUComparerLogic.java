@@ -2,6 +2,7 @@
 package com.example.InventoryComparer.logic;
 
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.*;
@@ -10,11 +11,13 @@ import java.util.stream.Collectors;
 
 public class SKUComparerLogic {
 
-    // Set this flag based on whether the "OGF Rules" box is checked.
-    private static boolean useOgfRules = false;
+    // NEW: Verbose diagnostics (per-row duplicate row lists etc.), enabled with -Dcomparer.diagnostics=true
+    static final boolean diagnosticsEnabled = Boolean.getBoolean("comparer.diagnostics");
 
-    // DataFormatter to handle all cell types consistently
-    private static final DataFormatter dataFormatter = new DataFormatter();
+    // NEW: Per-item debug output, only printed when diagnostics are enabled
+    private static void debug(String message) {
+        if (diagnosticsEnabled) System.out.println(message);
+    }
 
     // helper: consistent OGF detection (case-insensitive)
     private static boolean isOgfName(String name) {
@@ -24,6 +27,11 @@ public class SKUComparerLogic {
         return n.startsWith("temp_sku_ogf") || n.contains("ogf");
     }
 
+    // SIMPLIFIED: Check if unlisted file contains "OGF" (case-insensitive)
+    private static boolean isOgfUnlistedName(String fileName) {
+        return fileName.toUpperCase().replaceAll("[^A-Z0-9]", "").contains("OGF");
+    }
+
     // --- Data Structures ---
 
     static class ItemSourceData {
@@ -87,10 +95,14 @@ public class SKUComparerLogic {
         Set<String> allSkus = new HashSet<>();
         Set<String> allBarcodes = new HashSet<>();
         Map<String, ItemSourceData> sourceData = new HashMap<>();
+        // NEW: Presence by location/unlisted ordinal (see LocationGroups)
+        final BitSet locationPresence = new BitSet();
+        final BitSet unlistedPresence = new BitSet();
 
         List<String> finalRemarks = new ArrayList<>();
         String simpleStatus = "";
         String conflictStatus = "";
+        boolean inAnyRelevantUnlisted;
 
         Item(String sku, String barcode) {
             this.primarySku = sku == null ? "" : sku.trim();
@@ -152,184 +164,271 @@ public class SKUComparerLogic {
         public boolean isPresentIn(String locationName) { return sourceData.containsKey(locationName); }
     }
 
-    private static Map<Set<Item>, List<ItemSourceData>> readItems(File file, boolean isTempOgfFile, boolean skipInternalValidation) throws IOException {
-        Set<Item> uniqueItems = new HashSet<>();
-        List<ItemSourceData> duplicateSourceData = new ArrayList<>();
-        Set<String> uniqueSkus = new HashSet<>();
-        Set<String> uniqueBarcodes = new HashSet<>();
+    // NEW: Per-run location/unlisted groups. Every location and unlisted file gets an ordinal (its upload
+    // position) and the OGF / cosmetics / WEB / Unavailable groups are precomputed once as bitmasks, so the
+    // rule engine works on each item's presence bitsets instead of re-filtering the file names per item.
+    static class LocationGroups {
+        final List<String> locationNames;
+        final List<String> unlistedNames;
+
+        final BitSet allLocations = new BitSet();
+        final BitSet ogfLocations = new BitSet();
+        final BitSet cosmeticsLocations = new BitSet();
+
+        final BitSet ogfUnlisted = new BitSet();
+        final BitSet webUnavailableUnlisted = new BitSet();
+        final BitSet posUnavailableUnlisted = new BitSet();
+        // "In ANY UNLISTED?" groups for the cosmetics rules
+        final BitSet webRelevantUnlisted = new BitSet();
+        final BitSet nonWebRelevantUnlisted = new BitSet();
+
+        // First OGF location/unlisted and first cosmetics location/WEB unlisted file (-1 if none)
+        final int ogfLocation, ogfUnlistedFile, cosmeticsLocation, webUnlistedFile;
+        // All unlisted files except the OGF unlisted file
+        final BitSet nonOgfUnlisted = new BitSet();
+        // All unlisted files except the WEB unlisted file and the Unavailable files
+        final BitSet nonWebUnlisted = new BitSet();
+
+        // Files uploaded under the same name share one sourceData entry, so presence is tracked per name
+        private final Map<String, BitSet> locationOrdinalsByName = new HashMap<>();
+        private final Map<String, BitSet> unlistedOrdinalsByName = new HashMap<>();
+
+        LocationGroups(List<String> locationNames, List<String> unlistedNames) {
+            this.locationNames = locationNames;
+            this.unlistedNames = unlistedNames;
+
+            for (int i = 0; i < locationNames.size(); i++) {
+                String name = locationNames.get(i);
+                allLocations.set(i);
+                if (isOgfName(name)) ogfLocations.set(i);
+                if (isCosmeticsLocationName(name)) cosmeticsLocations.set(i);
+                locationOrdinalsByName.computeIfAbsent(name, k -> new BitSet()).set(i);
+            }
 
-        if (!file.exists()) {
-            return Map.of(uniqueItems, duplicateSourceData);
-        }
+            for (int i = 0; i < unlistedNames.size(); i++) {
+                String name = unlistedNames.get(i);
+                String upperName = name.toUpperCase();
+                if (isOgfName(name)) ogfUnlisted.set(i);
+                if (isWebUnavailableFile(name)) webUnavailableUnlisted.set(i);
+                if (isPosUnavailableFile(name)) posUnavailableUnlisted.set(i);
+                if (upperName.contains("WEB") && !isPosUnavailableFile(name)) webRelevantUnlisted.set(i);
+                if (!upperName.contains("WEB") && !isPosUnavailableFile(name) && !isWebUnavailableFile(name)) nonWebRelevantUnlisted.set(i);
+                unlistedOrdinalsByName.computeIfAbsent(name, k -> new BitSet()).set(i);
+            }
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
-
-            Sheet sheet = workbook.getSheetAt(0);
-            Row headerRow = sheet.getRow(0);
-            if (headerRow == null) return Map.of(uniqueItems, duplicateSourceData);
-
-            int skuCol = -1, barcodeCol = -1, nameCol = -1, remarkCol = -1;
-            int stockCol = -1, productStatusCol = -1; // NEW: Column indices for stock and product status
-            for (Cell cell : headerRow) {
-                if (cell != null) {
-                    // Use DataFormatter to get cell value as string regardless of cell type
-                    String value = dataFormatter.formatCellValue(cell).trim().toLowerCase();
-                    if (value.contains("sku")) skuCol = cell.getColumnIndex();
-                    if (value.contains("barcode")) barcodeCol = cell.getColumnIndex();
-                    if (value.equalsIgnoreCase("product") || value.contains("title")) nameCol = cell.getColumnIndex();
-                    if (value.contains("remark")) remarkCol = cell.getColumnIndex();
-                    // NEW: Detect stock column (look for "inventory", "quantity", "stock", "qty")
-                    String lowerValue = value.toLowerCase();
-                    if (lowerValue.equals("inventory quantity")) {
-                        stockCol = cell.getColumnIndex();
-                        System.out.println("DEBUG: Found Inventory Quantity column at index: " + stockCol);
-                    }
-                    // NEW: Detect product status column
-                    if (value.contains("product_status") || value.contains("product status") ||
-                            value.contains("status") && value.contains("product")) {
-                        productStatusCol = cell.getColumnIndex();
-                    }
+            ogfLocation = ogfLocations.nextSetBit(0);
+            cosmeticsLocation = cosmeticsLocations.nextSetBit(0);
+            ogfUnlistedFile = ogfUnlisted.nextSetBit(0);
+
+            // WEB Unlisted is the first unlisted file containing "WEB" that is NOT "WEB Unavailable"
+            int firstWebUnlisted = -1;
+            for (int i = 0; i < unlistedNames.size() && firstWebUnlisted < 0; i++) {
+                String name = unlistedNames.get(i);
+                if (name.toUpperCase().contains("WEB") && !isWebUnavailableFile(name)) firstWebUnlisted = i;
+            }
+            webUnlistedFile = firstWebUnlisted;
+
+            for (int i = 0; i < unlistedNames.size(); i++) {
+                String name = unlistedNames.get(i);
+                if (ogfUnlistedFile < 0 || !name.equals(unlistedNames.get(ogfUnlistedFile))) nonOgfUnlisted.set(i);
+                if ((webUnlistedFile < 0 || !name.equals(unlistedNames.get(webUnlistedFile)))
+                        && !webUnavailableUnlisted.get(i) && !posUnavailableUnlisted.get(i)) {
+                    nonWebUnlisted.set(i);
                 }
             }
+        }
 
-            if (skuCol == -1 && barcodeCol == -1)
-                throw new IllegalArgumentException("Could not find SKU or Barcode columns in file: " + file.getName());
-
-            // Enhanced duplicate tracking
-            Map<String, List<Integer>> skuRowMap = new HashMap<>();
-            Map<String, List<Integer>> barcodeRowMap = new HashMap<>();
+        // Sets the presence bits for every location/unlisted file uploaded under this source name
+        void markPresent(Item item, String sourceName) {
+            BitSet locations = locationOrdinalsByName.get(sourceName);
+            if (locations != null) item.locationPresence.or(locations);
+            BitSet unlisted = unlistedOrdinalsByName.get(sourceName);
+            if (unlisted != null) item.unlistedPresence.or(unlisted);
+        }
 
-            // First pass: collect ALL SKUs and barcodes with their row numbers
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
+        String joinLocationNames(BitSet ordinals) {
+            return joinNames(locationNames, ordinals);
+        }
 
-                // Use DataFormatter to get cell values as strings
-                String rawSku = skuCol >= 0 ? getFormattedCellValue(row.getCell(skuCol)) : "";
-                String rawBarcode = barcodeCol >= 0 ? getFormattedCellValue(row.getCell(barcodeCol)) : "";
+        String joinUnlistedNames(BitSet ordinals) {
+            return joinNames(unlistedNames, ordinals);
+        }
 
-                // NEW: Skip placeholder barcode values
-                if (!rawSku.isEmpty() && !isPlaceholderValue(rawSku)) {
-                    String lowerSku = rawSku.toLowerCase();
-                    skuRowMap.computeIfAbsent(lowerSku, k -> new ArrayList<>()).add(i + 1);
-                }
-                if (!rawBarcode.isEmpty() && !isPlaceholderValue(rawBarcode)) {
-                    String lowerBarcode = rawBarcode.toLowerCase();
-                    barcodeRowMap.computeIfAbsent(lowerBarcode, k -> new ArrayList<>()).add(i + 1);
-                }
-            }
+        private static String joinNames(List<String> names, BitSet ordinals) {
+            Set<String> distinct = new LinkedHashSet<>();
+            for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) distinct.add(names.get(i));
+            return String.join(", ", distinct);
+        }
 
-            // Identify ALL duplicates (any value that appears more than once)
-            Set<String> duplicateSkus = skuRowMap.entrySet().stream()
-                    .filter(entry -> entry.getValue().size() > 1)
-                    .map(Map.Entry::getKey)
-                    .collect(Collectors.toSet());
-
-            Set<String> duplicateBarcodes = barcodeRowMap.entrySet().stream()
-                    .filter(entry -> entry.getValue().size() > 1)
-                    .map(Map.Entry::getKey)
-                    .collect(Collectors.toSet());
-
-            // Second pass: process ALL rows and mark ALL duplicates
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
-
-                // CAPTURE ORIGINAL VALUES BEFORE ANY PROCESSING - using DataFormatter
-                String originalRawSku = skuCol >= 0 ? getFormattedCellValue(row.getCell(skuCol)) : "";
-                String rawSku = originalRawSku; // Keep original for OGF detection
-                String rawBarcode = barcodeCol >= 0 ? getFormattedCellValue(row.getCell(barcodeCol)) : "";
-                String rawProductName = nameCol >= 0 ? getFormattedCellValue(row.getCell(nameCol)) : "";
-                String ogfRemark = remarkCol >= 0 ? getFormattedCellValue(row.getCell(remarkCol)) : "";
-                // NEW: Capture stock and product status values
-                String stock = stockCol >= 0 ? getFormattedCellValue(row.getCell(stockCol)) : "";
-                String productStatus = productStatusCol >= 0 ? getFormattedCellValue(row.getCell(productStatusCol)) : "";
-
-                // NEW: Detect OGF remark from ORIGINAL SKU before any cleaning
-                if (isTempOgfFile && (ogfRemark == null || ogfRemark.trim().isEmpty())) {
-                    ogfRemark = detectOgfRemarkFromSku(originalRawSku);
-                    System.out.println("DEBUG: OGF Remark auto-detected - File: " + file.getName() +
-                            ", Original SKU: '" + originalRawSku + "', Remark: '" + ogfRemark + "'");
-                }
+        private static boolean isCosmeticsLocationName(String name) {
+            String lowerName = name.toLowerCase();
+            String upperName = name.toUpperCase();
+            return lowerName.contains("cosmetics") || lowerName.contains("cos")
+                    || upperName.contains("COSMETIC") || upperName.contains("COS");
+        }
+    }
 
-                if (!rawSku.isEmpty() || !rawBarcode.isEmpty()) {
-                    String lowerSku = rawSku.toLowerCase();
-                    String lowerBarcode = rawBarcode.toLowerCase();
-                    boolean isDuplicate = false;
-                    boolean isShortBarcode = false;
-                    boolean isSkuDuplicate = false;
-                    boolean isBarcodeDuplicate = false;
-
-                    if (!skipInternalValidation) {
-                        isShortBarcode = !rawBarcode.isEmpty() && rawBarcode.trim().length() < 3 && !isPlaceholderValue(rawBarcode);
-
-                        // ENHANCED: Use the complete duplicate detection to mark ALL duplicates
-                        // NEW: Skip placeholder values for duplicate detection
-                        if (!rawSku.isEmpty() && !isPlaceholderValue(rawSku) && duplicateSkus.contains(lowerSku)) {
-                            isDuplicate = true;
-                            isSkuDuplicate = true;
-                        }
+    // NEW: Consolidated items of one report run. SKU-less items are indexed by lowercase barcode
+    // so barcode-only merges are a hash lookup instead of a scan of the whole list.
+    static class ConsolidatedItems {
+        final Map<String, Item> bySku = new HashMap<>();
+        final List<Item> withNoSku = new ArrayList<>();
+        private final Map<String, Item> noSkuByBarcode = new HashMap<>();
+        LocationGroups groups;
 
-                        if (!rawBarcode.isEmpty() && !isPlaceholderValue(rawBarcode) && duplicateBarcodes.contains(lowerBarcode)) {
-                            isDuplicate = true;
-                            isBarcodeDuplicate = true;
-                        }
+        Item findNoSkuItem(String barcode) {
+            return noSkuByBarcode.get(barcode.toLowerCase());
+        }
 
-                        // Maintain original sets (but skip placeholders)
-                        if (!rawSku.isEmpty() && !isPlaceholderValue(rawSku)) {
-                            uniqueSkus.add(lowerSku);
-                        }
-                        if (!rawBarcode.isEmpty() && !isPlaceholderValue(rawBarcode)) {
-                            uniqueBarcodes.add(lowerBarcode);
-                        }
-                    }
+        void addNoSkuItem(Item item) {
+            withNoSku.add(item);
+            noSkuByBarcode.putIfAbsent(item.primaryBarcode.toLowerCase(), item);
+        }
+    }
 
-                    ItemSourceData tempSourceData = new ItemSourceData(
-                            rawSku, rawBarcode, rawProductName, isDuplicate, isShortBarcode, ogfRemark, isTempOgfFile,
-                            stock, productStatus);
+    private static Map<Set<Item>, List<ItemSourceData>> readItems(File file, boolean isTempOgfFile, boolean skipInternalValidation) throws IOException {
+        Set<Item> uniqueItems = new HashSet<>();
+        List<ItemSourceData> duplicateSourceData = new ArrayList<>();
 
-                    tempSourceData.isSkuDuplicate = isSkuDuplicate;
-                    tempSourceData.isBarcodeDuplicate = isBarcodeDuplicate;
+        if (!file.exists()) {
+            return Map.of(uniqueItems, duplicateSourceData);
+        }
 
-                    if (isDuplicate) {
-                        ItemSourceData duplicateData = new ItemSourceData(
-                                rawSku, rawBarcode, rawProductName, true, isShortBarcode, ogfRemark, isTempOgfFile,
-                                stock, productStatus);
+        // NEW: Single streaming (SAX) pass - resolve columns from the header row, build source data per row
+        // and only count SKU/Barcode occurrences. Duplicate flags are set once the whole file has been seen.
+        HeaderColumns columns = new HeaderColumns();
+        List<SourceRow> sourceRows = new ArrayList<>();
+        Map<String, int[]> skuCounts = new HashMap<>();
+        Map<String, int[]> barcodeCounts = new HashMap<>();
+        // Row-number lists are only kept for the diagnostics dump
+        Map<String, List<Integer>> skuRowMap = diagnosticsEnabled ? new HashMap<>() : null;
+        Map<String, List<Integer>> barcodeRowMap = diagnosticsEnabled ? new HashMap<>() : null;
+        int[] lastRowNum = {0};
+
+        XlsxStreamingReader.readFirstSheet(file, (rowNum, values) -> {
+            if (!columns.resolved) {
+                // Header must be the first physical row, same as sheet.getRow(0)
+                columns.resolved = true;
+                columns.present = rowNum == 0;
+                if (columns.present) columns.resolve(values);
+                return;
+            }
+            if (!columns.present || !columns.hasKeyColumn()) return;
+            lastRowNum[0] = rowNum;
+
+            String rawSku = XlsxStreamingReader.value(values, columns.skuCol);
+            String rawBarcode = XlsxStreamingReader.value(values, columns.barcodeCol);
+
+            // NEW: Skip placeholder values for duplicate detection
+            String skuKey = !rawSku.isEmpty() && !isPlaceholderValue(rawSku) ? rawSku.toLowerCase() : null;
+            String barcodeKey = !rawBarcode.isEmpty() && !isPlaceholderValue(rawBarcode) ? rawBarcode.toLowerCase() : null;
+            if (skuKey != null) {
+                skuCounts.computeIfAbsent(skuKey, k -> new int[1])[0]++;
+                if (skuRowMap != null) skuRowMap.computeIfAbsent(skuKey, k -> new ArrayList<>()).add(rowNum + 1);
+            }
+            if (barcodeKey != null) {
+                barcodeCounts.computeIfAbsent(barcodeKey, k -> new int[1])[0]++;
+                if (barcodeRowMap != null) barcodeRowMap.computeIfAbsent(barcodeKey, k -> new ArrayList<>()).add(rowNum + 1);
+            }
 
-                        duplicateSourceData.add(duplicateData);
-                    }
+            if (rawSku.isEmpty() && rawBarcode.isEmpty()) return;
 
-                    Item newItem = new Item(tempSourceData.cleanSku, tempSourceData.rawBarcode);
-                    newItem.addSourceData("TEMP_KEY", tempSourceData);
-                    uniqueItems.add(newItem);
-                }
+            String ogfRemark = XlsxStreamingReader.value(values, columns.remarkCol);
+            // NEW: Detect OGF remark from ORIGINAL SKU before any cleaning
+            if (isTempOgfFile && ogfRemark.isEmpty()) {
+                ogfRemark = detectOgfRemarkFromSku(rawSku);
+                System.out.println("DEBUG: OGF Remark auto-detected - File: " + file.getName() +
+                        ", Original SKU: '" + rawSku + "', Remark: '" + ogfRemark + "'");
             }
 
-            // DEBUG: Print ALL duplicate information
-            System.out.println("=== DUPLICATE DEBUG INFO for " + file.getName() + " ===");
-            System.out.println("Total rows in sheet: " + sheet.getLastRowNum());
-            System.out.println("Duplicate SKUs found: " + duplicateSkus.size());
-            for (String sku : duplicateSkus) {
-                List<Integer> rows = skuRowMap.get(sku);
-                System.out.println("SKU '" + sku + "' appears " + rows.size() + " times in rows: " + rows);
-            }
-            System.out.println("Duplicate Barcodes found: " + duplicateBarcodes.size());
-            for (String barcode : duplicateBarcodes) {
-                List<Integer> rows = barcodeRowMap.get(barcode);
-                System.out.println("Barcode '" + barcode + "' appears " + rows.size() + " times in rows: " + rows);
+            boolean isShortBarcode = !skipInternalValidation && barcodeKey != null && rawBarcode.length() < 3;
+
+            ItemSourceData sourceData = new ItemSourceData(
+                    rawSku, rawBarcode, XlsxStreamingReader.value(values, columns.nameCol), false, isShortBarcode,
+                    ogfRemark, isTempOgfFile,
+                    XlsxStreamingReader.value(values, columns.stockCol),
+                    XlsxStreamingReader.value(values, columns.productStatusCol));
+            sourceRows.add(new SourceRow(sourceData, skuKey, barcodeKey));
+
+            Item newItem = new Item(sourceData.cleanSku, sourceData.rawBarcode);
+            newItem.addSourceData("TEMP_KEY", sourceData);
+            uniqueItems.add(newItem);
+        });
+
+        if (!columns.present) return Map.of(uniqueItems, duplicateSourceData);
+        if (!columns.hasKeyColumn())
+            throw new IllegalArgumentException("Could not find SKU or Barcode columns in file: " + file.getName());
+
+        // Deferred flagging: ANY value that appears more than once is a duplicate
+        if (!skipInternalValidation) {
+            for (SourceRow sourceRow : sourceRows) {
+                ItemSourceData data = sourceRow.data;
+                data.isSkuDuplicate = sourceRow.skuKey != null && skuCounts.get(sourceRow.skuKey)[0] > 1;
+                data.isBarcodeDuplicate = sourceRow.barcodeKey != null && barcodeCounts.get(sourceRow.barcodeKey)[0] > 1;
+                if (data.isSkuDuplicate || data.isBarcodeDuplicate) {
+                    data.isDuplicateInSource = true;
+                    duplicateSourceData.add(data);
+                }
             }
-            System.out.println("Total items marked as duplicates: " + duplicateSourceData.size());
-            System.out.println("=====================================");
+        }
 
+        // DEBUG: Print duplicate information
+        long duplicateSkuCount = skuCounts.values().stream().filter(c -> c[0] > 1).count();
+        long duplicateBarcodeCount = barcodeCounts.values().stream().filter(c -> c[0] > 1).count();
+        System.out.println("=== DUPLICATE DEBUG INFO for " + file.getName() + " ===");
+        System.out.println("Total rows in sheet: " + lastRowNum[0]);
+        System.out.println("Duplicate SKUs found: " + duplicateSkuCount);
+        if (skuRowMap != null) {
+            skuRowMap.forEach((sku, rows) -> {
+                if (rows.size() > 1) System.out.println("SKU '" + sku + "' appears " + rows.size() + " times in rows: " + rows);
+            });
         }
+        System.out.println("Duplicate Barcodes found: " + duplicateBarcodeCount);
+        if (barcodeRowMap != null) {
+            barcodeRowMap.forEach((barcode, rows) -> {
+                if (rows.size() > 1) System.out.println("Barcode '" + barcode + "' appears " + rows.size() + " times in rows: " + rows);
+            });
+        }
+        System.out.println("Total items marked as duplicates: " + duplicateSourceData.size());
+        System.out.println("=====================================");
+
         return Map.of(uniqueItems, duplicateSourceData);
     }
 
-    // NEW: Helper method using DataFormatter to get cell value as string
-    private static String getFormattedCellValue(Cell cell) {
-        if (cell == null) return "";
-        return dataFormatter.formatCellValue(cell).trim();
+    // NEW: Compact per-row record kept until duplicate flags can be decided (keys are null for empty/placeholder values)
+    private record SourceRow(ItemSourceData data, String skuKey, String barcodeKey) {}
+
+    // NEW: Column positions resolved from the header row of a location/unlisted file
+    static class HeaderColumns {
+        boolean resolved;
+        boolean present;
+        int skuCol = -1, barcodeCol = -1, nameCol = -1, remarkCol = -1;
+        int stockCol = -1, productStatusCol = -1;
+
+        void resolve(String[] headerValues) {
+            for (int col = 0; col < headerValues.length; col++) {
+                if (headerValues[col] == null) continue;
+                String value = headerValues[col].trim().toLowerCase();
+                if (value.contains("sku")) skuCol = col;
+                if (value.contains("barcode")) barcodeCol = col;
+                if (value.equalsIgnoreCase("product") || value.contains("title")) nameCol = col;
+                if (value.contains("remark")) remarkCol = col;
+                // NEW: Detect stock column
+                if (value.equals("inventory quantity")) {
+                    stockCol = col;
+                    System.out.println("DEBUG: Found Inventory Quantity column at index: " + stockCol);
+                }
+                // NEW: Detect product status column
+                if (value.contains("product_status") || value.contains("product status") ||
+                        value.contains("status") && value.contains("product")) {
+                    productStatusCol = col;
+                }
+            }
+        }
+
+        boolean hasKeyColumn() {
+            return skuCol != -1 || barcodeCol != -1;
+        }
     }
 
     // NEW: Helper method to identify placeholder values that shouldn't be treated as duplicates
@@ -381,32 +480,76 @@ public class SKUComparerLogic {
     @SuppressWarnings("unchecked")
     // MODIFIED: Added parameter to simulate the checkbox state
     public static void generateReport(List<File> locationFiles, List<File> unlistedFiles, File output, boolean ogfRulesChecked) throws IOException {
+        try (ComparisonContext context = new ComparisonContext(ogfRulesChecked)) {
+            generateReport(locationFiles, unlistedFiles, output, context);
+        }
+    }
+
+    // NEW: Request-scoped entry point - the "OGF Rules" flag comes from the context, no static state is touched
+    public static void generateReport(List<File> locationFiles, List<File> unlistedFiles, File output, ComparisonContext context) throws IOException {
+        ReportWorkbooks.write(buildReport(locationFiles, unlistedFiles, context), output);
+        finalizeReportGeneration(output);
+    }
+
+    // NEW: Builds the finished report workbook without writing it anywhere, so callers can stream it
+    // (e.g. straight into an HTTP response). The caller must write or release it via ReportWorkbooks.
+    public static Workbook buildReport(List<File> locationFiles, List<File> unlistedFiles, ComparisonContext context) throws IOException {
         if (locationFiles == null || locationFiles.isEmpty()) {
             throw new IllegalArgumentException("Must provide at least one location file for comparison.");
         }
 
-        // SET THE GLOBAL FLAG
-        useOgfRules = ogfRulesChecked;
-
         List<String> locationNames = locationFiles.stream().map(f -> f.getName().replace(".xlsx", "").replace(".xls", "")).collect(Collectors.toList());
         List<String> unlistedNames = (unlistedFiles != null) ?
                 unlistedFiles.stream().map(f -> f.getName().replace(".xlsx", "").replace(".xls", "")).collect(Collectors.toList()) :
                 new ArrayList<>();
 
-        Map<String, Item> consolidatedItemsBySku = new HashMap<>();
-        List<Item> consolidatedItemsWithNoSku = new ArrayList<>();
+        ConsolidatedItems consolidated = consolidateItems(locationFiles, unlistedFiles);
 
-        // Needed for Cosmetics Rule Logic
-        Set<String> cosmeticLocationNames = locationNames.stream()
-                .filter(name -> name.toLowerCase().contains("cosmetics") || name.toLowerCase().contains("cos"))
-                .collect(Collectors.toSet());
+        // Pass consolidated data to the writing method
+        return buildComparisonReport(
+                consolidated,
+                locationNames,
+                unlistedNames,
+                context.isOgfRules()
+        );
+    }
+
+    // NEW: Parses every input file and merges the rows into consolidated items (SKU map + SKU-less items)
+    static ConsolidatedItems consolidateItems(List<File> locationFiles, List<File> unlistedFiles) throws IOException {
+        return mergeParsedFiles(locationFiles, unlistedFiles, parseInputFiles(locationFiles, unlistedFiles));
+    }
 
-        // Read location files and merge
+    static List<Map<Set<Item>, List<ItemSourceData>>> parseInputFiles(List<File> locationFiles, List<File> unlistedFiles) throws IOException {
+        // NEW: Parse all location and unlisted files in parallel; results come back in upload order
+        // so the serial merge below sees exactly the same sequence as before.
+        List<ReportExecutors.ParseTask<Map<Set<Item>, List<ItemSourceData>>>> parseTasks = new ArrayList<>();
         for (File file : locationFiles) {
             String fileName = file.getName().replace(".xlsx", "").replace(".xls", "");
             boolean isTempOgfFile = isOgfName(fileName);
+            parseTasks.add(() -> readItems(file, isTempOgfFile, false));
+        }
+        if (unlistedFiles != null) {
+            for (File file : unlistedFiles) {
+                boolean isTempOgfFile = isOgfUnlistedName(file.getName().replace(".xlsx", "").replace(".xls", ""));
+                parseTasks.add(() -> readItems(file, isTempOgfFile, true));
+            }
+        }
+        return ReportExecutors.invokeAllOrdered(parseTasks);
+    }
 
-            Map<Set<Item>, List<ItemSourceData>> data = readItems(file, isTempOgfFile, false);
+    // Merges parsed files (in location-then-unlisted order, as returned by parseInputFiles)
+    @SuppressWarnings("unchecked")
+    static ConsolidatedItems mergeParsedFiles(List<File> locationFiles, List<File> unlistedFiles,
+                                              List<Map<Set<Item>, List<ItemSourceData>>> parsedFiles) {
+        ConsolidatedItems consolidated = new ConsolidatedItems();
+        int parsedIndex = 0;
+
+        // Merge location files
+        for (File file : locationFiles) {
+            String fileName = file.getName().replace(".xlsx", "").replace(".xls", "");
+            boolean isTempOgfFile = isOgfName(fileName);
+
+            Map<Set<Item>, List<ItemSourceData>> data = parsedFiles.get(parsedIndex++);
             Set<Item> uniqueItems = (Set<Item>) data.keySet().iterator().next();
             List<ItemSourceData> duplicateSourceData = (List<ItemSourceData>) data.values().iterator().next();
 
@@ -425,7 +568,7 @@ public class SKUComparerLogic {
 
                 Item existingItem = null;
                 if (!currentSku.isEmpty()) {
-                    existingItem = consolidatedItemsBySku.get(currentSku.toLowerCase());
+                    existingItem = consolidated.bySku.get(currentSku.toLowerCase());
                 }
 
                 if (existingItem == null) {
@@ -433,22 +576,16 @@ public class SKUComparerLogic {
                     if (!currentSku.isEmpty()) {
                         itemToUse = new Item(currentSku, currentData.rawBarcode);
                         itemToUse.addSourceData(fileName, finalData);
-                        consolidatedItemsBySku.put(currentSku.toLowerCase(), itemToUse);
+                        consolidated.bySku.put(currentSku.toLowerCase(), itemToUse);
                     } else if (!currentData.rawBarcode.isEmpty()) {
-                        boolean merged = false;
-                        for (Item noSkuItem : consolidatedItemsWithNoSku) {
-                            if (noSkuItem.primaryBarcode.equalsIgnoreCase(currentData.rawBarcode)) {
-                                noSkuItem.addSourceData(fileName, finalData);
-                                merged = true;
-                                break;
-                            }
-                        }
-                        if (!merged) {
+                        Item noSkuItem = consolidated.findNoSkuItem(currentData.rawBarcode);
+                        if (noSkuItem != null) {
+                            noSkuItem.addSourceData(fileName, finalData);
+                            itemToUse = null;
+                        } else {
                             itemToUse = new Item("", currentData.rawBarcode);
                             itemToUse.addSourceData(fileName, finalData);
-                            consolidatedItemsWithNoSku.add(itemToUse);
-                        } else {
-                            itemToUse = null;
+                            consolidated.addNoSkuItem(itemToUse);
                         }
                     } else {
                         continue;
@@ -473,10 +610,9 @@ public class SKUComparerLogic {
             for (File file : unlistedFiles) {
                 String fileName = file.getName().replace(".xlsx", "").replace(".xls", "");
 
-                // SIMPLIFIED: Check if unlisted file contains "OGF" (case-insensitive)
-                boolean isTempOgfFile = fileName.toUpperCase().replaceAll("[^A-Z0-9]", "").contains("OGF");
+                boolean isTempOgfFile = isOgfUnlistedName(fileName);
 
-                Map<Set<Item>, List<ItemSourceData>> data = readItems(file, isTempOgfFile, true);
+                Map<Set<Item>, List<ItemSourceData>> data = parsedFiles.get(parsedIndex++);
                 Set<Item> uniqueItems = (Set<Item>) data.keySet().iterator().next();
 
                 for (Item newItem : uniqueItems) {
@@ -497,7 +633,7 @@ public class SKUComparerLogic {
 
                     Item existingItem = null;
                     if (!currentSku.isEmpty()) {
-                        existingItem = consolidatedItemsBySku.get(currentSku.toLowerCase());
+                        existingItem = consolidated.bySku.get(currentSku.toLowerCase());
                     }
 
                     if (existingItem == null) {
@@ -508,23 +644,18 @@ public class SKUComparerLogic {
                             // CRITICAL FIX: Set primarySkuSource immediately for unlisted-only items BEFORE addSourceData
                             itemToUse.primarySkuSource = fileName;
                             itemToUse.addSourceData(fileName, finalData);
-                            consolidatedItemsBySku.put(currentSku.toLowerCase(), itemToUse);
+                            consolidated.bySku.put(currentSku.toLowerCase(), itemToUse);
                             System.out.println("DEBUG: Created unlisted-only item with SKU: " + currentSku + " from file: " + fileName);
                         } else if (!currentData.rawBarcode.isEmpty()) {
                             // Item with no SKU but has Barcode - check no-sku list
-                            boolean merged = false;
-                            for (Item noSkuItem : consolidatedItemsWithNoSku) {
-                                if (noSkuItem.primaryBarcode.equalsIgnoreCase(currentData.rawBarcode)) {
-                                    noSkuItem.addSourceData(fileName, finalData);
-                                    System.out.println("DEBUG: Merged no-SKU unlisted item (barcode " + currentData.rawBarcode + ") into existing item from file: " + fileName);
-                                    merged = true;
-                                    break;
-                                }
-                            }
-                            if (!merged) {
+                            Item noSkuItem = consolidated.findNoSkuItem(currentData.rawBarcode);
+                            if (noSkuItem != null) {
+                                noSkuItem.addSourceData(fileName, finalData);
+                                System.out.println("DEBUG: Merged no-SKU unlisted item (barcode " + currentData.rawBarcode + ") into existing item from file: " + fileName);
+                            } else {
                                 itemToUse = new Item("", currentData.rawBarcode);
                                 itemToUse.addSourceData(fileName, finalData);
-                                consolidatedItemsWithNoSku.add(itemToUse);
+                                consolidated.addNoSkuItem(itemToUse);
                                 System.out.println("DEBUG: Created new no-SKU unlisted item (barcode " + currentData.rawBarcode + ") from file: " + fileName);
                             }
                         }
@@ -543,144 +674,44 @@ public class SKUComparerLogic {
             }
         }
 
-        // Pass consolidated data to the writing method
-        writeComparisonReport(
-                consolidatedItemsBySku,
-                consolidatedItemsWithNoSku,
-                locationNames,
-                unlistedNames,
-                cosmeticLocationNames,
-                output
-        );
-    }
+        // NEW: Location ordinals/group masks for the rule engine, and each item's presence bitsets
+        List<String> locationNames = locationFiles.stream().map(f -> f.getName().replace(".xlsx", "").replace(".xls", "")).collect(Collectors.toList());
+        List<String> unlistedNames = (unlistedFiles != null) ?
+                unlistedFiles.stream().map(f -> f.getName().replace(".xlsx", "").replace(".xls", "")).collect(Collectors.toList()) :
+                new ArrayList<>();
+        consolidated.groups = new LocationGroups(locationNames, unlistedNames);
+        for (Item item : consolidated.bySku.values()) {
+            for (String sourceName : item.sourceData.keySet()) consolidated.groups.markPresent(item, sourceName);
+        }
+        for (Item item : consolidated.withNoSku) {
+            for (String sourceName : item.sourceData.keySet()) consolidated.groups.markPresent(item, sourceName);
+        }
 
-    private static void writeComparisonReport(Map<String, Item> consolidatedItemsBySku,
-                                              List<Item> consolidatedItemsWithNoSku,
-                                              List<String> locationNames, List<String> unlistedNames, // all unlisted names
-                                              Set<String> cosmeticLocationNames, // kept for display name logic
-                                              File output) throws IOException {
-        // Consolidation and Sorting remains the same
-        Workbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Inventory Comparison Report");
+        return consolidated;
+    }
 
+    private static Workbook buildComparisonReport(ConsolidatedItems consolidated,
+                                                  List<String> locationNames, List<String> unlistedNames, // all unlisted names
+                                                  boolean ogfRules) {
+        LocationGroups groups = consolidated.groups;
         // Final Consolidation and Sorting
-        List<Item> allConsolidatedItems = new ArrayList<>(consolidatedItemsBySku.values());
-        allConsolidatedItems.addAll(consolidatedItemsWithNoSku);
+        List<Item> allConsolidatedItems = new ArrayList<>(consolidated.bySku.values());
+        allConsolidatedItems.addAll(consolidated.withNoSku);
 
         System.out.println("=== STARTING DUPLICATE DETECTION ===");
         System.out.println("Total items to check: " + allConsolidatedItems.size());
 
-        // NEW: Detect cross-item barcode duplicates BEFORE processing individual items
-        detectCrossItemBarcodeDuplicates(allConsolidatedItems);
-
-        // NEW: Detect SKU-barcode mismatches (different SKUs sharing same barcode)
-        detectSkuBarcodeMismatches(allConsolidatedItems);
-
-        // UPDATED: Enhanced product title logic to handle unlisted-only items correctly
-        for (Item item : allConsolidatedItems) {
-            // Always start with empty product name
-            item.consolidatedProductName = "";
-
-            System.out.println("=== DEBUG: Processing item with primary SKU: " + item.primarySku + " ===");
-            System.out.println("DEBUG: Primary SKU source: '" + item.primarySkuSource + "'");
-            System.out.println("DEBUG: All sources: " + item.sourceData.keySet());
-
-            // STRATEGY 1: Try to use product title from the SKU source (including unlisted files)
-            if (!item.primarySkuSource.isEmpty()) {
-                ItemSourceData sourceData = item.getDataForLocation(item.primarySkuSource);
-                if (sourceData != null && hasValidProductTitle(sourceData.rawProductName)) {
-                    item.consolidatedProductName = sourceData.rawProductName.trim();
-                    System.out.println("DEBUG: SUCCESS - Using product title from SKU source '" + item.primarySkuSource +
-                            "' for item: " + item.primarySku + " - Title: '" + item.consolidatedProductName + "'");
-                } else {
-                    System.out.println("DEBUG: SKU source '" + item.primarySkuSource +
-                            "' has no valid product title for item: " + item.primarySku);
-                }
-            }
+        // NEW: Detect cross-item barcode duplicates and SKU-barcode mismatches (different SKUs sharing
+        // the same barcode) from one barcode grouping, BEFORE processing individual items
+        analyzeBarcodeConflicts(allConsolidatedItems);
 
-            // STRATEGY 2: If no SKU source or no product title from SKU source, discover the source
-            if (item.consolidatedProductName.isEmpty()) {
-                System.out.println("DEBUG: Attempting to discover SKU source for item: " + item.primarySku);
-
-                // Look through ALL sources to find which one has this SKU and a valid product title
-                for (Map.Entry<String, ItemSourceData> entry : item.sourceData.entrySet()) {
-                    String sourceName = entry.getKey();
-                    ItemSourceData data = entry.getValue();
-
-                    // Check if this source has the same SKU as our primary SKU
-                    if (data.rawSku != null && data.rawSku.trim().equalsIgnoreCase(item.primarySku)) {
-                        System.out.println("DEBUG: Found matching SKU in source: " + sourceName);
-
-                        if (hasValidProductTitle(data.rawProductName)) {
-                            item.consolidatedProductName = data.rawProductName.trim();
-                            System.out.println("DEBUG: SUCCESS - Discovered and using product title from source '" + sourceName +
-                                    "' for item: " + item.primarySku);
-                            break;
-                        } else {
-                            System.out.println("DEBUG: Source '" + sourceName + "' has no valid product title");
-                        }
-                    }
-                }
-            }
-
-            // STRATEGY 3: If still no product title, check ALL location files
-            if (item.consolidatedProductName.isEmpty()) {
-                System.out.println("DEBUG: Falling back to location files for item: " + item.primarySku);
-                for (String location : locationNames) {
-                    ItemSourceData locationData = item.getDataForLocation(location);
-                    if (locationData != null && hasValidProductTitle(locationData.rawProductName)) {
-                        item.consolidatedProductName = locationData.rawProductName.trim();
-                        System.out.println("DEBUG: SUCCESS - Fallback to location '" + location +
-                                "' for product title: " + item.primarySku);
-                        break;
-                    }
-                }
-            }
-
-            // STRATEGY 4: If still no product title, check ALL unlisted files for the best title
-            if (item.consolidatedProductName.isEmpty()) {
-                System.out.println("DEBUG: Falling back to unlisted files for item: " + item.primarySku);
-                String bestUnlistedTitle = "";
-                String bestUnlistedSource = "";
-
-                for (String unlisted : unlistedNames) {
-                    for (String key : item.sourceData.keySet()) {
-                        if (key.equalsIgnoreCase(unlisted) || key.toLowerCase().contains(unlisted.toLowerCase())) {
-                            ItemSourceData unlistedData = item.sourceData.get(key);
-                            if (unlistedData != null && hasValidProductTitle(unlistedData.rawProductName)) {
-                                String currentTitle = unlistedData.rawProductName.trim();
-                                if (currentTitle.length() > bestUnlistedTitle.length()) {
-                                    bestUnlistedTitle = currentTitle;
-                                    bestUnlistedSource = key;
-                                }
-                                System.out.println("DEBUG: Found valid product title in unlisted '" + key + "': '" + currentTitle + "'");
-                            }
-                        }
-                    }
-                }
-
-                if (!bestUnlistedTitle.isEmpty()) {
-                    item.consolidatedProductName = bestUnlistedTitle;
-                    System.out.println("DEBUG: SUCCESS - Using best product title from unlisted '" + bestUnlistedSource +
-                            "' for item: " + item.primarySku);
-                }
-            }
-
-            // STRATEGY 5: Final backup - use "Default Title"
-            if (item.consolidatedProductName.isEmpty()) {
-                item.consolidatedProductName = "Default Title";
-                System.out.println("DEBUG: FINAL BACKUP - Using 'Default Title' for item: " + item.primarySku);
-
-                // Additional debug for items with no title
-                System.out.println("=== NO TITLE FOUND: Item " + item.primarySku + " using 'Default Title' ===");
-                for (Map.Entry<String, ItemSourceData> entry : item.sourceData.entrySet()) {
-                    String source = entry.getKey();
-                    ItemSourceData data = entry.getValue();
-                    System.out.println("DEBUG:   Source " + source + " - SKU: '" + data.rawSku + "', Product Title: '" + data.rawProductName + "'");
-                }
-            }
-            System.out.println("=== END Processing item: " + item.primarySku + " ===\n");
-        }
+        // NEW: Per-item evaluation stage (title, data-quality checks, remarks, unlisted status). Items are
+        // independent, so large catalogs are evaluated on the fork-join pool; rows are written serially below.
+        ReportExecutors.forEachParallel(allConsolidatedItems, PARALLEL_ANALYSIS_THRESHOLD, item -> {
+            resolveProductTitle(item, locationNames, unlistedNames);
+            generateFinalRemarksWithFilteredUnlisted(item, groups, ogfRules);
+            item.inAnyRelevantUnlisted = isItemInAnyRelevantUnlisted(item, groups, ogfRules);
+        });
 
         allConsolidatedItems.sort(new Comparator<Item>() {
             @Override
@@ -692,6 +723,40 @@ public class SKUComparerLogic {
         });
         // End Consolidation and Sorting
 
+        // NEW: Large reports are written with a streaming workbook (bounded row window, compressed temp files)
+        int columnCount = 3 + unlistedNames.size() * 2 + locationNames.size() * 5 + 5;
+        long estimatedCells = (long) columnCount * (allConsolidatedItems.size() + 1);
+        boolean streaming = estimatedCells > STREAMING_CELL_THRESHOLD;
+        System.out.println("Estimated report cells: " + estimatedCells +
+                (streaming ? " - using streaming workbook" : " - using standard workbook"));
+
+        Workbook workbook = streaming ? createStreamingWorkbook() : new XSSFWorkbook();
+        try {
+            Sheet sheet = workbook.createSheet("Inventory Comparison Report");
+            writeReportRows(workbook, sheet, allConsolidatedItems, locationNames, unlistedNames);
+            return workbook;
+        } catch (RuntimeException e) {
+            // SXSSF keeps the flushed rows in temp files until disposed
+            ReportWorkbooks.release(workbook);
+            throw e;
+        }
+    }
+
+    // NEW: Reports above this many cells use SXSSF; override with -Dcomparer.streamingCells=N
+    private static final long STREAMING_CELL_THRESHOLD = Long.getLong("comparer.streamingCells", 300_000L);
+
+    // NEW: Rows kept in memory by the streaming workbook; older rows are flushed to disk
+    private static final int STREAMING_ROW_WINDOW = 100;
+
+    private static SXSSFWorkbook createStreamingWorkbook() {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(STREAMING_ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        return workbook;
+    }
+
+    // Writes the header and one row per item; works for both XSSF and SXSSF since rows are created in order
+    private static void writeReportRows(Workbook workbook, Sheet sheet, List<Item> allConsolidatedItems,
+                                        List<String> locationNames, List<String> unlistedNames) {
         // Write Header Row
         Map<String, String> locationDisplayNames = new HashMap<>();
         String originalOgfName = locationNames.stream()
@@ -721,6 +786,8 @@ public class SKUComparerLogic {
             }
         }
         CellStyle headerStyle = createHeaderStyle(workbook);
+        // NEW: Column widths estimated from text length while writing (replaces autoSizeColumn)
+        ColumnWidthTracker columnWidths = new ColumnWidthTracker();
         int rowIdx = 0;
         Row header = sheet.createRow(rowIdx++);
         int colIdx = 0;
@@ -751,14 +818,12 @@ public class SKUComparerLogic {
         header.createCell(colIdx++).setCellValue("CONSOLIDATED REMARKS");
 
         for (int i = 0; i < colIdx; i++) header.getCell(i).setCellStyle(headerStyle);
+        columnWidths.track(header);
 
 
         // Start Data Rows Loop
         for (Item item : allConsolidatedItems) {
 
-            // Call the unified remarks generator
-            generateFinalRemarksWithFilteredUnlisted(item, locationNames, unlistedNames, cosmeticLocationNames);
-
             Row row = sheet.createRow(rowIdx++);
             colIdx = 0;
 
@@ -805,149 +870,217 @@ public class SKUComparerLogic {
             row.createCell(colIdx++).setCellValue(presentInAll ? "YES" : "NO");
 
             // Check the status for "In ANY UNLISTED?" column
-            boolean statusInAnyRelevantUnlisted = isItemInAnyRelevantUnlisted(item, locationNames, unlistedNames, cosmeticLocationNames);
-            row.createCell(colIdx++).setCellValue(statusInAnyRelevantUnlisted ? "YES" : "NO");
+            row.createCell(colIdx++).setCellValue(item.inAnyRelevantUnlisted ? "YES" : "NO");
 
             row.createCell(colIdx++).setCellValue(item.simpleStatus);
             row.createCell(colIdx++).setCellValue(item.conflictStatus);
 
             String finalRemark = String.join(" | ", item.finalRemarks);
             row.createCell(colIdx++).setCellValue(finalRemark);
+            columnWidths.track(row);
         }
         // End Data Rows Loop
-        // Finalize and Write
-        for (int i = 0; i < colIdx; i++) sheet.autoSizeColumn(i);
-
-        try (FileOutputStream fos = new FileOutputStream(output)) {
-            workbook.write(fos);
-        }
-        workbook.close();
-        finalizeReportGeneration(output);
+        // Finalize
+        columnWidths.apply(sheet);
     }
 
-    private static void detectSkuBarcodeMismatches(List<Item> allItems) {
-        System.out.println("=== DETECTING SKU-BARCODE MISMATCHES (DIFFERENT SKUs SHARING SAME BARCODE) ===");
+    // NEW: Items above this count have their barcode groups evaluated in parallel
+    private static final int PARALLEL_ANALYSIS_THRESHOLD = 20_000;
 
-        Map<String, List<Item>> barcodeToItems = new HashMap<>();
+    // NEW: Single barcode analysis stage. Groups all items by barcode once and evaluates, per group,
+    // the cross-item duplicate rule followed by the SKU-barcode mismatch rule. Every item belongs to
+    // exactly one group, so groups can be processed independently (and in parallel for large catalogs)
+    // while each item still receives its remarks/conflict flags in the original rule order.
+    private static void analyzeBarcodeConflicts(List<Item> allItems) {
+        System.out.println("=== DETECTING CROSS-ITEM BARCODE DUPLICATES AND SKU-BARCODE MISMATCHES ===");
 
-        // Group all items by barcode (case-insensitive, ignore empty barcodes)
-        for (Item item : allItems) {
-            if (!item.primaryBarcode.isEmpty() && !isPlaceholderValue(item.primaryBarcode)) {
-                String normalizedBarcode = item.primaryBarcode.trim().toLowerCase();
-                barcodeToItems.computeIfAbsent(normalizedBarcode, k -> new ArrayList<>()).add(item);
-                System.out.println("DEBUG: Added barcode '" + normalizedBarcode + "' for SKU: " + item.primarySku);
-            }
-        }
+        boolean parallel = allItems.size() >= PARALLEL_ANALYSIS_THRESHOLD;
 
-        // Flag barcodes used by multiple items with DIFFERENT SKUs
-        for (Map.Entry<String, List<Item>> entry : barcodeToItems.entrySet()) {
-            if (entry.getValue().size() > 1) {
-                String barcode = entry.getKey();
-                List<Item> duplicateItems = entry.getValue();
+        // Group all items by barcode (case-insensitive, ignore empty barcodes). groupingBy keeps list
+        // order equal to the encounter order of allItems, also for parallel streams.
+        Map<String, List<Item>> barcodeToItems = (parallel ? allItems.parallelStream() : allItems.stream())
+                .filter(item -> !item.primaryBarcode.isEmpty() && !isPlaceholderValue(item.primaryBarcode))
+                .collect(Collectors.groupingBy(item -> item.primaryBarcode.trim().toLowerCase()));
 
-                // Check if these are actually different SKUs (not just the same item from multiple files)
-                Set<String> uniqueSkus = duplicateItems.stream()
-                        .map(item -> item.primarySku.trim().toLowerCase())
-                        .filter(sku -> !sku.isEmpty())
-                        .collect(Collectors.toSet());
+        List<Map.Entry<String, List<Item>>> sharedBarcodes = barcodeToItems.entrySet().stream()
+                .filter(entry -> entry.getValue().size() > 1)
+                .collect(Collectors.toList());
 
-                // Only flag if there are genuinely different SKUs sharing the same barcode
-                if (uniqueSkus.size() > 1) {
-                    System.out.println("🚨 CRITICAL: SKU-BARCODE MISMATCH FOUND: Barcode '" + barcode +
-                            "' is shared by " + uniqueSkus.size() + " different SKUs:");
+        (parallel ? sharedBarcodes.parallelStream() : sharedBarcodes.stream())
+                .forEach(entry -> {
+                    flagCrossItemBarcodeDuplicate(entry.getKey(), entry.getValue());
+                    flagSkuBarcodeMismatch(entry.getKey(), entry.getValue());
+                });
 
-                    // Collect all SKUs that share this barcode
-                    List<String> duplicateSkus = new ArrayList<>();
-                    for (Item item : duplicateItems) {
-                        duplicateSkus.add(item.primarySku);
-                        System.out.println("   - SKU: " + item.primarySku + " | Product: " + item.consolidatedProductName);
-                    }
+        System.out.println("Barcodes shared by multiple items: " + sharedBarcodes.size());
+        System.out.println("=== BARCODE ANALYSIS COMPLETE ===");
+    }
 
-                    // Flag ALL items that share this barcode with different SKUs
-                    for (Item item : duplicateItems) {
-                        System.out.println("DEBUG: Flagging item " + item.primarySku + " with duplicate barcode");
-                        if (!item.conflictStatus.contains("DUPLICATE_BARCODE_ACROSS_SKUS")) {
-                            item.conflictStatus = item.conflictStatus.isEmpty() ?
-                                    "DUPLICATE_BARCODE_ACROSS_SKUS" : item.conflictStatus + " + DUPLICATE_BARCODE_ACROSS_SKUS";
-                        }
+    // Rule 1: flag ALL items that share this barcode
+    private static void flagCrossItemBarcodeDuplicate(String barcode, List<Item> duplicateItems) {
+        if (diagnosticsEnabled) {
+            System.out.println("🚨 CROSS-ITEM BARCODE DUPLICATE FOUND: Barcode '" + barcode +
+                    "' is shared by " + duplicateItems.size() + " different items");
+        }
 
-                        // Create detailed remark showing all conflicting SKUs
-                        // FIXED: Use traditional loop instead of stream to avoid compilation error
-                        List<String> otherSkuList = new ArrayList<>();
-                        for (Item other : duplicateItems) {
-                            if (!other.primarySku.equals(item.primarySku)) {
-                                otherSkuList.add(other.primarySku);
-                            }
-                        }
-                        String otherSkus = String.join(", ", otherSkuList);
+        for (Item item : duplicateItems) {
+            if (!item.conflictStatus.contains("DUPLICATE_BARCODE_ACROSS_ITEMS")) {
+                item.conflictStatus = item.conflictStatus.isEmpty() ?
+                        "DUPLICATE_BARCODE_ACROSS_ITEMS" : item.conflictStatus + " + DUPLICATE_BARCODE_ACROSS_ITEMS";
+            }
 
-                        // Only add this remark once to avoid duplication
-                        boolean alreadyHasRemark = item.finalRemarks.stream()
-                                .anyMatch(remark -> remark.contains("Barcode " + barcode + " shared with other SKU"));
+            // Create detailed remark showing all conflicting SKUs
+            String otherSkus = duplicateItems.stream()
+                    .filter(other -> !other.primarySku.equals(item.primarySku))
+                    .map(other -> other.primarySku)
+                    .collect(Collectors.joining(", "));
 
-                        if (!alreadyHasRemark) {
-                            item.finalRemarks.add("🚫 CRITICAL: Barcode " + barcode + " shared with other SKU(s): " + otherSkus);
-                            System.out.println("DEBUG: Added duplicate barcode remark to item: " + item.primarySku);
-                        }
-                    }
-                } else {
-                    System.out.println("DEBUG: Barcode '" + barcode + "' has " + duplicateItems.size() +
-                            " items but only " + uniqueSkus.size() + " unique SKUs - not flagging as mismatch");
-                }
-            }
+            item.finalRemarks.add("🚫 Barcode " + barcode + " shared with other SKUs: " + otherSkus);
         }
-
-        System.out.println("=== SKU-BARCODE MISMATCH DETECTION COMPLETE ===");
     }
 
-    private static void detectCrossItemBarcodeDuplicates(List<Item> allItems) {
-        System.out.println("=== DETECTING CROSS-ITEM BARCODE DUPLICATES ===");
+    // Rule 2: flag items only when genuinely different SKUs share the same barcode
+    private static void flagSkuBarcodeMismatch(String barcode, List<Item> duplicateItems) {
+        // Check if these are actually different SKUs (not just the same item from multiple files)
+        Set<String> uniqueSkus = duplicateItems.stream()
+                .map(item -> item.primarySku.trim().toLowerCase())
+                .filter(sku -> !sku.isEmpty())
+                .collect(Collectors.toSet());
+        if (uniqueSkus.size() <= 1) return;
 
-        Map<String, List<Item>> barcodeToItems = new HashMap<>();
+        if (diagnosticsEnabled) {
+            System.out.println("🚨 CRITICAL: SKU-BARCODE MISMATCH FOUND: Barcode '" + barcode +
+                    "' is shared by " + uniqueSkus.size() + " different SKUs");
+        }
 
-        // Group all items by barcode (case-insensitive, ignore empty barcodes)
-        for (Item item : allItems) {
-            if (!item.primaryBarcode.isEmpty() && !isPlaceholderValue(item.primaryBarcode)) {
-                String normalizedBarcode = item.primaryBarcode.trim().toLowerCase();
-                barcodeToItems.computeIfAbsent(normalizedBarcode, k -> new ArrayList<>()).add(item);
+        for (Item item : duplicateItems) {
+            if (!item.conflictStatus.contains("DUPLICATE_BARCODE_ACROSS_SKUS")) {
+                item.conflictStatus = item.conflictStatus.isEmpty() ?
+                        "DUPLICATE_BARCODE_ACROSS_SKUS" : item.conflictStatus + " + DUPLICATE_BARCODE_ACROSS_SKUS";
+            }
+
+            List<String> otherSkuList = new ArrayList<>();
+            for (Item other : duplicateItems) {
+                if (!other.primarySku.equals(item.primarySku)) {
+                    otherSkuList.add(other.primarySku);
+                }
+            }
+            String otherSkus = String.join(", ", otherSkuList);
+
+            // Only add this remark once to avoid duplication
+            boolean alreadyHasRemark = item.finalRemarks.stream()
+                    .anyMatch(remark -> remark.contains("Barcode " + barcode + " shared with other SKU"));
+
+            if (!alreadyHasRemark) {
+                item.finalRemarks.add("🚫 CRITICAL: Barcode " + barcode + " shared with other SKU(s): " + otherSkus);
+            }
+        }
+    }
+
+    // UPDATED: Enhanced product title logic to handle unlisted-only items correctly
+    private static void resolveProductTitle(Item item, List<String> locationNames, List<String> unlistedNames) {
+        // Always start with empty product name
+        item.consolidatedProductName = "";
+
+        debug("=== DEBUG: Processing item with primary SKU: " + item.primarySku + " ===");
+        debug("DEBUG: Primary SKU source: '" + item.primarySkuSource + "'");
+        debug("DEBUG: All sources: " + item.sourceData.keySet());
+
+        // STRATEGY 1: Try to use product title from the SKU source (including unlisted files)
+        if (!item.primarySkuSource.isEmpty()) {
+            ItemSourceData sourceData = item.getDataForLocation(item.primarySkuSource);
+            if (sourceData != null && hasValidProductTitle(sourceData.rawProductName)) {
+                item.consolidatedProductName = sourceData.rawProductName.trim();
+                debug("DEBUG: SUCCESS - Using product title from SKU source '" + item.primarySkuSource +
+                        "' for item: " + item.primarySku + " - Title: '" + item.consolidatedProductName + "'");
+            } else {
+                debug("DEBUG: SKU source '" + item.primarySkuSource +
+                        "' has no valid product title for item: " + item.primarySku);
             }
         }
 
-        // Flag barcodes used by multiple items
-        for (Map.Entry<String, List<Item>> entry : barcodeToItems.entrySet()) {
-            if (entry.getValue().size() > 1) {
-                String barcode = entry.getKey();
-                List<Item> duplicateItems = entry.getValue();
+        // STRATEGY 2: If no SKU source or no product title from SKU source, discover the source
+        if (item.consolidatedProductName.isEmpty()) {
+            debug("DEBUG: Attempting to discover SKU source for item: " + item.primarySku);
 
-                System.out.println("🚨 CROSS-ITEM BARCODE DUPLICATE FOUND: Barcode '" + barcode +
-                        "' is shared by " + duplicateItems.size() + " different items:");
+            // Look through ALL sources to find which one has this SKU and a valid product title
+            for (Map.Entry<String, ItemSourceData> entry : item.sourceData.entrySet()) {
+                String sourceName = entry.getKey();
+                ItemSourceData data = entry.getValue();
 
-                // Collect all SKUs that share this barcode
-                List<String> duplicateSkus = new ArrayList<>();
-                for (Item item : duplicateItems) {
-                    duplicateSkus.add(item.primarySku);
-                    System.out.println("   - SKU: " + item.primarySku + " | Product: " + item.consolidatedProductName);
-                }
+                // Check if this source has the same SKU as our primary SKU
+                if (data.rawSku != null && data.rawSku.trim().equalsIgnoreCase(item.primarySku)) {
+                    debug("DEBUG: Found matching SKU in source: " + sourceName);
 
-                // Flag ALL items that share this barcode
-                for (Item item : duplicateItems) {
-                    if (!item.conflictStatus.contains("DUPLICATE_BARCODE_ACROSS_ITEMS")) {
-                        item.conflictStatus = item.conflictStatus.isEmpty() ?
-                                "DUPLICATE_BARCODE_ACROSS_ITEMS" : item.conflictStatus + " + DUPLICATE_BARCODE_ACROSS_ITEMS";
+                    if (hasValidProductTitle(data.rawProductName)) {
+                        item.consolidatedProductName = data.rawProductName.trim();
+                        debug("DEBUG: SUCCESS - Discovered and using product title from source '" + sourceName +
+                                "' for item: " + item.primarySku);
+                        break;
+                    } else {
+                        debug("DEBUG: Source '" + sourceName + "' has no valid product title");
                     }
+                }
+            }
+        }
 
-                    // Create detailed remark showing all conflicting SKUs
-                    String otherSkus = duplicateItems.stream()
-                            .filter(other -> !other.primarySku.equals(item.primarySku))
-                            .map(other -> other.primarySku)
-                            .collect(Collectors.joining(", "));
+        // STRATEGY 3: If still no product title, check ALL location files
+        if (item.consolidatedProductName.isEmpty()) {
+            debug("DEBUG: Falling back to location files for item: " + item.primarySku);
+            for (String location : locationNames) {
+                ItemSourceData locationData = item.getDataForLocation(location);
+                if (locationData != null && hasValidProductTitle(locationData.rawProductName)) {
+                    item.consolidatedProductName = locationData.rawProductName.trim();
+                    debug("DEBUG: SUCCESS - Fallback to location '" + location +
+                            "' for product title: " + item.primarySku);
+                    break;
+                }
+            }
+        }
 
-                    item.finalRemarks.add("🚫 Barcode " + barcode + " shared with other SKUs: " + otherSkus);
+        // STRATEGY 4: If still no product title, check ALL unlisted files for the best title
+        if (item.consolidatedProductName.isEmpty()) {
+            debug("DEBUG: Falling back to unlisted files for item: " + item.primarySku);
+            String bestUnlistedTitle = "";
+            String bestUnlistedSource = "";
+
+            for (String unlisted : unlistedNames) {
+                for (String key : item.sourceData.keySet()) {
+                    if (key.equalsIgnoreCase(unlisted) || key.toLowerCase().contains(unlisted.toLowerCase())) {
+                        ItemSourceData unlistedData = item.sourceData.get(key);
+                        if (unlistedData != null && hasValidProductTitle(unlistedData.rawProductName)) {
+                            String currentTitle = unlistedData.rawProductName.trim();
+                            if (currentTitle.length() > bestUnlistedTitle.length()) {
+                                bestUnlistedTitle = currentTitle;
+                                bestUnlistedSource = key;
+                            }
+                            debug("DEBUG: Found valid product title in unlisted '" + key + "': '" + currentTitle + "'");
+                        }
+                    }
                 }
             }
+
+            if (!bestUnlistedTitle.isEmpty()) {
+                item.consolidatedProductName = bestUnlistedTitle;
+                debug("DEBUG: SUCCESS - Using best product title from unlisted '" + bestUnlistedSource +
+                        "' for item: " + item.primarySku);
+            }
         }
 
-        System.out.println("=== CROSS-ITEM BARCODE DUPLICATE DETECTION COMPLETE ===");
+        // STRATEGY 5: Final backup - use "Default Title"
+        if (item.consolidatedProductName.isEmpty()) {
+            item.consolidatedProductName = "Default Title";
+            debug("DEBUG: FINAL BACKUP - Using 'Default Title' for item: " + item.primarySku);
+
+            // Additional debug for items with no title
+            debug("=== NO TITLE FOUND: Item " + item.primarySku + " using 'Default Title' ===");
+            for (Map.Entry<String, ItemSourceData> entry : item.sourceData.entrySet()) {
+                String source = entry.getKey();
+                ItemSourceData data = entry.getValue();
+                debug("DEBUG:   Source " + source + " - SKU: '" + data.rawSku + "', Product Title: '" + data.rawProductName + "'");
+            }
+        }
+        debug("=== END Processing item: " + item.primarySku + " ===\n");
     }
 
     private static boolean hasValidProductTitle(String productTitle) {
@@ -962,77 +1095,56 @@ public class SKUComparerLogic {
                 trimmed.length() >= 2; // Minimum reasonable product title length
     }
 
-    private static boolean isItemInAnyRelevantUnlisted(Item item, List<String> locationNames, List<String> unlistedNames, Set<String> cosmeticLocationNames) {
+    private static boolean isItemInAnyRelevantUnlisted(Item item, LocationGroups groups, boolean ogfRules) {
 
-        if (useOgfRules) {
-            // For OGF rules, use the same exclusive logic as in generateFinalRemarksWithFilteredUnlisted
-            Set<String> presentLocations;
-            if (item.isOgfGroupItem) {
-                // OGF item: Only consider OGF locations
-                presentLocations = locationNames.stream()
-                        .filter(name -> isOgfName(name))
-                        .filter(item::isPresentIn)
-                        .collect(Collectors.toSet());
-            } else {
-                // Non-OGF item: Only consider non-OGF locations
-                presentLocations = locationNames.stream()
-                        .filter(name -> !isOgfName(name))
-                        .filter(item::isPresentIn)
-                        .collect(Collectors.toSet());
-            }
+        if (ogfRules) {
+            // For OGF rules, use the same exclusive logic as in generateFinalRemarksWithFilteredUnlisted:
+            // OGF items only consider OGF locations, non-OGF items only non-OGF locations
+            boolean inRelevantLocation = item.isOgfGroupItem
+                    ? item.locationPresence.intersects(groups.ogfLocations)
+                    : hasAnyOutside(item.locationPresence, groups.ogfLocations);
+            if (!inRelevantLocation) return false;
 
-            // Now determine relevant unlisted based on the filtered locations
-            if (item.isOgfGroupItem && !presentLocations.isEmpty()) {
-                // OGF item in OGF locations: Check OGF unlisted
-                return unlistedNames.stream()
-                        .filter(SKUComparerLogic::isOgfName)
-                        .anyMatch(item::isPresentIn);
-            } else if (!item.isOgfGroupItem && !presentLocations.isEmpty()) {
-                // Non-OGF item in non-OGF locations: Check non-OGF unlisted
-                return unlistedNames.stream()
-                        .filter(name -> !isOgfName(name))
-                        .anyMatch(item::isPresentIn);
-            } else {
-                return false;
-            }
+            // OGF item in OGF locations: Check OGF unlisted, otherwise check non-OGF unlisted
+            return item.isOgfGroupItem
+                    ? item.unlistedPresence.intersects(groups.ogfUnlisted)
+                    : hasAnyOutside(item.unlistedPresence, groups.ogfUnlisted);
         } else {
-            // Cosmetics Rules - Use the same exclusive logic as in generateFinalRemarksWithFilteredUnlisted
-            Set<String> presentLocations;
-            if (item.isCosmeticsGroupItem) {
-                // Cosmetics item: Only consider cosmetics locations
-                presentLocations = locationNames.stream()
-                        .filter(name -> cosmeticLocationNames.contains(name) ||
-                                name.toUpperCase().contains("COSMETIC") ||
-                                name.toUpperCase().contains("COS"))
-                        .filter(item::isPresentIn)
-                        .collect(Collectors.toSet());
-            } else {
-                // Non-cosmetics item: Only consider non-cosmetics locations
-                presentLocations = locationNames.stream()
-                        .filter(name -> !cosmeticLocationNames.contains(name) &&
-                                !name.toUpperCase().contains("COSMETIC") &&
-                                !name.toUpperCase().contains("COS"))
-                        .filter(item::isPresentIn)
-                        .collect(Collectors.toSet());
-            }
-
-            // Now determine relevant unlisted based on the filtered locations
-            if (item.isCosmeticsGroupItem && !presentLocations.isEmpty()) {
-                // Cosmetics item in cosmetics locations: Check WEB unlisted (excluding POS Unavailable)
-                return unlistedNames.stream()
-                        .filter(name -> name.toUpperCase().contains("WEB") && !isPosUnavailableFile(name))
-                        .anyMatch(item::isPresentIn);
-            } else if (!item.isCosmeticsGroupItem && !presentLocations.isEmpty()) {
-                // Non-cosmetics item in non-cosmetics locations: Check non-WEB unlisted (excluding Unavailable files)
-                return unlistedNames.stream()
-                        .filter(name -> !name.toUpperCase().contains("WEB") && !isPosUnavailableFile(name) && !isWebUnavailableFile(name))
-                        .anyMatch(item::isPresentIn);
-            } else {
-                return false;
-            }
+            // Cosmetics Rules - cosmetics items only consider cosmetics locations, others only non-cosmetics
+            boolean inRelevantLocation = item.isCosmeticsGroupItem
+                    ? item.locationPresence.intersects(groups.cosmeticsLocations)
+                    : hasAnyOutside(item.locationPresence, groups.cosmeticsLocations);
+            if (!inRelevantLocation) return false;
+
+            // Cosmetics item: Check WEB unlisted (excluding POS Unavailable)
+            // Non-cosmetics item: Check non-WEB unlisted (excluding Unavailable files)
+            return item.isCosmeticsGroupItem
+                    ? item.unlistedPresence.intersects(groups.webRelevantUnlisted)
+                    : item.unlistedPresence.intersects(groups.nonWebRelevantUnlisted);
         }
     }
 
+    // NEW: true if any bit of 'present' lies outside 'group'
+    private static boolean hasAnyOutside(BitSet present, BitSet group) {
+        BitSet outside = (BitSet) present.clone();
+        outside.andNot(group);
+        return !outside.isEmpty();
+    }
+
+    // NEW: a AND b as a new bitset
+    private static BitSet and(BitSet a, BitSet b) {
+        BitSet result = (BitSet) a.clone();
+        result.and(b);
+        return result;
+    }
+
+    // NEW: a AND NOT b as a new bitset
+    private static BitSet andNot(BitSet a, BitSet b) {
+        BitSet result = (BitSet) a.clone();
+        result.andNot(b);
+        return result;
+    }
+
 /**
     private static void generateFinalRemarksWithFilteredUnlisted(
             Item item, List<String> locationNames, List<String> unlistedNames, Set<String> cosmeticLocationNames) {
@@ -1341,7 +1453,7 @@ public class SKUComparerLogic {
 
         // If after removing leading zeros all barcodes are the same, it's not a real issue
         if (normalizedForComparison.size() == 1) {
-            System.out.println("DEBUG: Barcode differences for " + item.primarySku + " are only leading zeros - NOT flagging as error");
+            debug("DEBUG: Barcode differences for " + item.primarySku + " are only leading zeros - NOT flagging as error");
 
             // Remove existing barcode difference remarks and conflict status
             item.finalRemarks.removeIf(remark -> remark.contains("Different barcode"));
@@ -1354,7 +1466,7 @@ public class SKUComparerLogic {
         }
 
         // If barcodes are significantly different, flag them
-        System.out.println("DEBUG: Significant barcode differences found for " + item.primarySku);
+        debug("DEBUG: Significant barcode differences found for " + item.primarySku);
 
         // Build the list of unique barcodes with their sources
         List<String> uniqueBarcodes = new ArrayList<>(barcodeToSource.keySet());
@@ -1371,8 +1483,7 @@ public class SKUComparerLogic {
         }
     }
 
-    private static void generateFinalRemarksWithFilteredUnlisted(
-            Item item, List<String> locationNames, List<String> unlistedNames, Set<String> cosmeticLocationNames) {
+    private static void generateFinalRemarksWithFilteredUnlisted(Item item, LocationGroups groups, boolean ogfRules) {
 
         // CRITICAL FIX: Store existing duplicate barcode status BEFORE clearing
         boolean hadDuplicateBarcodeBefore = item.conflictStatus.contains("DUPLICATE_BARCODE_ACROSS_SKUS");
@@ -1391,7 +1502,7 @@ public class SKUComparerLogic {
         if (hadDuplicateBarcodeBefore) {
             item.conflictStatus = "DUPLICATE_BARCODE_ACROSS_SKUS";
             item.finalRemarks.addAll(existingDuplicateRemarks);
-            System.out.println("DEBUG: RESTORED duplicate barcode status for item: " + item.primarySku);
+            debug("DEBUG: RESTORED duplicate barcode status for item: " + item.primarySku);
         }
 
         // --- Data Quality Checks (applied regardless of rule set) ---
@@ -1404,32 +1515,15 @@ public class SKUComparerLogic {
         // --- NEW: Check for critical duplicate barcode issues FIRST ---
         boolean hasCriticalDuplicateBarcode = item.conflictStatus.contains("DUPLICATE_BARCODE_ACROSS_SKUS");
 
-        // --- Determine presence with special handling for Unavailable files ---
-        Set<String> presentLocations = locationNames.stream()
-                .filter(item::isPresentIn)
-                .collect(Collectors.toSet());
-
-        // Identify which unlisted files are WEB Unavailable and POS Unavailable (exact names)
-        Set<String> webUnavailableFiles = unlistedNames.stream()
-                .filter(SKUComparerLogic::isWebUnavailableFile)
-                .collect(Collectors.toSet());
-
-        Set<String> posUnavailableFiles = unlistedNames.stream()
-                .filter(SKUComparerLogic::isPosUnavailableFile)
-                .collect(Collectors.toSet());
-
-        Set<String> presentUnlisted = unlistedNames.stream()
-                .filter(item::isPresentIn)
-                .collect(Collectors.toSet());
+        // --- Determine presence (location/unlisted ordinals) with special handling for Unavailable files ---
+        BitSet presentLocations = item.locationPresence;
+        BitSet presentUnlisted = item.unlistedPresence;
 
         // Check if item is in any Unavailable files
-        boolean inWebUnavailable = webUnavailableFiles.stream().anyMatch(presentUnlisted::contains);
-        boolean inPosUnavailable = posUnavailableFiles.stream().anyMatch(presentUnlisted::contains);
+        boolean inWebUnavailable = presentUnlisted.intersects(groups.webUnavailableUnlisted);
+        boolean inPosUnavailable = presentUnlisted.intersects(groups.posUnavailableUnlisted);
 
-        // Filter out Unavailable files from missing locations logic
-        Set<String> missingLocations = locationNames.stream()
-                .filter(loc -> !presentLocations.contains(loc))
-                .collect(Collectors.toSet());
+        BitSet missingLocations = andNot(groups.allLocations, presentLocations);
 
         boolean isBad = false;
         List<String> badReasons = new ArrayList<>();
@@ -1438,33 +1532,23 @@ public class SKUComparerLogic {
         if (hasCriticalDuplicateBarcode) {
             // For critical duplicate barcode issues, mark as BAD regardless of other rules
             isBad = true;
-            System.out.println("DEBUG: Item " + item.primarySku + " has CRITICAL duplicate barcode - skipping rule checks");
+            debug("DEBUG: Item " + item.primarySku + " has CRITICAL duplicate barcode - skipping rule checks");
         } else {
             // Only apply normal rules if no critical duplicate barcode issue
-            if (useOgfRules) {
+            if (ogfRules) {
                 // --------------------- OGF RULES (keep existing logic) ---------------------
-                String ogfLocationFile = locationNames.stream()
-                        .filter(SKUComparerLogic::isOgfName)
-                        .findFirst().orElse(null);
-
-                String ogfUnlistedFile = unlistedNames.stream()
-                        .filter(SKUComparerLogic::isOgfName)
-                        .findFirst()
-                        .orElse(null);
-
-                // Get non-OGF unlisted files (all unlisted except OGF unlisted)
-                Set<String> nonOgfUnlisted = unlistedNames.stream()
-                        .filter(unl -> ogfUnlistedFile == null || !unl.equals(ogfUnlistedFile))
-                        .collect(Collectors.toSet());
+                int ogfLocationFile = groups.ogfLocation;
+                int ogfUnlistedFile = groups.ogfUnlistedFile;
 
-                boolean inOgfLoc = ogfLocationFile != null && presentLocations.contains(ogfLocationFile);
-                boolean inOgfUnl = ogfUnlistedFile != null && presentUnlisted.contains(ogfUnlistedFile);
-                boolean inAnyNonOgfUnlisted = nonOgfUnlisted.stream().anyMatch(presentUnlisted::contains);
+                boolean inOgfLoc = ogfLocationFile >= 0 && presentLocations.get(ogfLocationFile);
+                boolean inOgfUnl = ogfUnlistedFile >= 0 && presentUnlisted.get(ogfUnlistedFile);
+                boolean inAnyNonOgfUnlisted = presentUnlisted.intersects(groups.nonOgfUnlisted);
 
                 // LOGIC 1: OGF unlisted should ONLY be compared to OGF location file
                 if (inOgfLoc && inOgfUnl) {
                     isBad = true;
-                    badReasons.add("OGF item should not appear in both " + ogfLocationFile + " and " + ogfUnlistedFile);
+                    badReasons.add("OGF item should not appear in both " + groups.locationNames.get(ogfLocationFile)
+                            + " and " + groups.unlistedNames.get(ogfUnlistedFile));
                 }
 
                 // LOGIC 2: Other unlisted files should be compared to ALL location files including OGF location
@@ -1474,31 +1558,16 @@ public class SKUComparerLogic {
                 }
 
                 // UPDATED LOGIC 3: Location consistency - but account for unlisted rules
+                // Missing from OGF location is OK if item is in OGF unlisted,
+                // missing from non-OGF location is OK if item is in non-OGF unlisted
                 if (!presentLocations.isEmpty() && !missingLocations.isEmpty()) {
-                    boolean hasUnjustifiedMissingLocations = false;
-                    Set<String> unjustifiedMissing = new HashSet<>();
-
-                    for (String missingLoc : missingLocations) {
-                        boolean isOgfLocation = isOgfName(missingLoc);
-
-                        if (isOgfLocation) {
-                            // Missing from OGF location is OK if item is in OGF unlisted
-                            if (!inOgfUnl) {
-                                unjustifiedMissing.add(missingLoc);
-                                hasUnjustifiedMissingLocations = true;
-                            }
-                        } else {
-                            // Missing from non-OGF location is OK if item is in non-OGF unlisted
-                            if (!inAnyNonOgfUnlisted) {
-                                unjustifiedMissing.add(missingLoc);
-                                hasUnjustifiedMissingLocations = true;
-                            }
-                        }
-                    }
+                    BitSet unjustifiedMissing = new BitSet();
+                    if (!inOgfUnl) unjustifiedMissing.or(and(missingLocations, groups.ogfLocations));
+                    if (!inAnyNonOgfUnlisted) unjustifiedMissing.or(andNot(missingLocations, groups.ogfLocations));
 
-                    if (hasUnjustifiedMissingLocations) {
+                    if (!unjustifiedMissing.isEmpty()) {
                         isBad = true;
-                        badReasons.add("Item missing from locations: " + String.join(", ", unjustifiedMissing));
+                        badReasons.add("Item missing from locations: " + groups.joinLocationNames(unjustifiedMissing));
                     }
                 }
 
@@ -1517,48 +1586,29 @@ public class SKUComparerLogic {
 
             } else {
                 // --------------------- COSMETICS RULES ---------------------
-                String cosmeticsLocationFile = locationNames.stream()
-                        .filter(name -> cosmeticLocationNames.contains(name)
-                                || name.toUpperCase().contains("COSMETIC")
-                                || name.toUpperCase().contains("COS"))
-                        .findFirst()
-                        .orElse(null);
-
+                int cosmeticsLocationFile = groups.cosmeticsLocation;
                 // WEB Unlisted is any unlisted file containing "WEB" that is NOT "WEB Unavailable"
-                String webUnlistedFile = unlistedNames.stream()
-                        .filter(name -> name.toUpperCase().contains("WEB") && !isWebUnavailableFile(name))
-                        .findFirst()
-                        .orElse(null);
+                int webUnlistedFile = groups.webUnlistedFile;
 
-                // Get non-WEB unlisted files (all unlisted except WEB unlisted)
-                Set<String> nonWebUnlisted = unlistedNames.stream()
-                        .filter(unl -> webUnlistedFile == null || !unl.equals(webUnlistedFile))
-                        .filter(unl -> !isWebUnavailableFile(unl)) // Also exclude WEB Unavailable
-                        .filter(unl -> !isPosUnavailableFile(unl)) // Also exclude POS Unavailable
-                        .collect(Collectors.toSet());
-
-                boolean inCosLoc = cosmeticsLocationFile != null && presentLocations.contains(cosmeticsLocationFile);
-                boolean inWebUnl = webUnlistedFile != null && presentUnlisted.contains(webUnlistedFile);
-                boolean inAnyNonWebUnlisted = nonWebUnlisted.stream().anyMatch(presentUnlisted::contains);
+                boolean inCosLoc = cosmeticsLocationFile >= 0 && presentLocations.get(cosmeticsLocationFile);
+                boolean inWebUnl = webUnlistedFile >= 0 && presentUnlisted.get(webUnlistedFile);
+                boolean inAnyNonWebUnlisted = presentUnlisted.intersects(groups.nonWebUnlisted);
 
                 // LOGIC 1: Cosmetics file should ONLY be compared to WEB unlisted (not WEB Unavailable)
                 if (inCosLoc && inWebUnl) {
                     isBad = true;
-                    badReasons.add("Cosmetics item should not appear in both " + cosmeticsLocationFile + " and " + webUnlistedFile);
+                    badReasons.add("Cosmetics item should not appear in both " + groups.locationNames.get(cosmeticsLocationFile)
+                            + " and " + groups.unlistedNames.get(webUnlistedFile));
                 }
 
                 // LOGIC 1.5: POS Unavailable should ONLY be in Cosmetics.lk (WEB location)
                 if (inPosUnavailable) {
                     // Check if item is in any location other than Cosmetics.lk
-                    Set<String> nonCosmeticsLocations = presentLocations.stream()
-                            .filter(loc -> !cosmeticLocationNames.contains(loc) &&
-                                    !loc.toUpperCase().contains("COSMETIC") &&
-                                    !loc.toUpperCase().contains("COS"))
-                            .collect(Collectors.toSet());
+                    BitSet nonCosmeticsLocations = andNot(presentLocations, groups.cosmeticsLocations);
 
                     if (!nonCosmeticsLocations.isEmpty()) {
                         isBad = true;
-                        badReasons.add("POS Unavailable item should not appear in non-cosmetics locations: " + String.join(", ", nonCosmeticsLocations));
+                        badReasons.add("POS Unavailable item should not appear in non-cosmetics locations: " + groups.joinLocationNames(nonCosmeticsLocations));
                     }
 
                     // Check if item is in WEB unlisted (should not be)
@@ -1569,7 +1619,7 @@ public class SKUComparerLogic {
 
                     // NEW: POS Unavailable items are NOT required to be in any other locations
                     // So we skip all missing location checks for POS Unavailable items
-                    System.out.println("DEBUG: Item " + item.primarySku + " is in POS Unavailable - skipping missing location checks");
+                    debug("DEBUG: Item " + item.primarySku + " is in POS Unavailable - skipping missing location checks");
                 }
 
                 // LOGIC 1.6: WEB Unavailable should NOT be in Cosmetics.lk
@@ -1580,46 +1630,25 @@ public class SKUComparerLogic {
 
                 // UPDATED LOGIC 2: Other unlisted files should be compared to NON-COSMETICS locations only
                 if (inAnyNonWebUnlisted) {
-                    Set<String> nonCosmeticsPresentLocations = presentLocations.stream()
-                            .filter(loc -> !cosmeticLocationNames.contains(loc) &&
-                                    !loc.toUpperCase().contains("COSMETIC") &&
-                                    !loc.toUpperCase().contains("COS"))
-                            .collect(Collectors.toSet());
+                    BitSet nonCosmeticsPresentLocations = andNot(presentLocations, groups.cosmeticsLocations);
 
                     if (!nonCosmeticsPresentLocations.isEmpty()) {
                         isBad = true;
-                        badReasons.add("Non-WEB unlisted item should not appear in non-cosmetics locations: " + String.join(", ", nonCosmeticsPresentLocations));
+                        badReasons.add("Non-WEB unlisted item should not appear in non-cosmetics locations: " + groups.joinLocationNames(nonCosmeticsPresentLocations));
                     }
                 }
 
                 // UPDATED LOGIC 3: Location consistency - EXCLUDE Unavailable files from missing location checks
                 // CRITICAL FIX: Skip missing location checks entirely for POS Unavailable items
+                // If item is in WEB Unavailable, missing from cosmetics location is NOT an issue
                 if (!inPosUnavailable && !presentLocations.isEmpty() && !missingLocations.isEmpty()) {
-                    boolean hasUnjustifiedMissingLocations = false;
-                    Set<String> unjustifiedMissing = new HashSet<>();
+                    BitSet unjustifiedMissing = new BitSet();
+                    if (!inWebUnl && !inWebUnavailable) unjustifiedMissing.or(and(missingLocations, groups.cosmeticsLocations));
+                    if (!inAnyNonWebUnlisted) unjustifiedMissing.or(andNot(missingLocations, groups.cosmeticsLocations));
 
-                    for (String missingLoc : missingLocations) {
-                        boolean isCosmeticsLocation = cosmeticLocationNames.contains(missingLoc) ||
-                                missingLoc.toUpperCase().contains("COSMETIC") ||
-                                missingLoc.toUpperCase().contains("COS");
-
-                        if (isCosmeticsLocation) {
-                            // If item is in WEB Unavailable, missing from cosmetics location is NOT an issue
-                            if (!inWebUnl && !inWebUnavailable) {
-                                unjustifiedMissing.add(missingLoc);
-                                hasUnjustifiedMissingLocations = true;
-                            }
-                        } else {
-                            if (!inAnyNonWebUnlisted) {
-                                unjustifiedMissing.add(missingLoc);
-                                hasUnjustifiedMissingLocations = true;
-                            }
-                        }
-                    }
-
-                    if (hasUnjustifiedMissingLocations) {
+                    if (!unjustifiedMissing.isEmpty()) {
                         isBad = true;
-                        badReasons.add("Item missing from locations: " + String.join(", ", unjustifiedMissing));
+                        badReasons.add("Item missing from locations: " + groups.joinLocationNames(unjustifiedMissing));
                     }
                 }
 
@@ -1647,7 +1676,7 @@ public class SKUComparerLogic {
             // CRITICAL FIX: Show duplicate barcode as highest priority issue
             if (hasCriticalDuplicateBarcode) {
                 item.simpleStatus = "CRITICAL: Duplicate Barcode - BAD";
-                System.out.println("DEBUG: Setting CRITICAL status for item: " + item.primarySku);
+                debug("DEBUG: Setting CRITICAL status for item: " + item.primarySku);
             } else if (hasDataIssues) {
                 item.simpleStatus = "Rule Violation + DATA ISSUES - BAD";
             } else {
@@ -1662,7 +1691,7 @@ public class SKUComparerLogic {
             if (!presentLocations.isEmpty() && presentUnlisted.isEmpty()) {
                 item.finalRemarks.add("✅ Item correctly placed in all locations and not in any unlisted files");
             } else if (presentLocations.isEmpty() && !presentUnlisted.isEmpty()) {
-                item.finalRemarks.add("✅ Item correctly only in unlisted files: " + String.join(", ", presentUnlisted));
+                item.finalRemarks.add("✅ Item correctly only in unlisted files: " + groups.joinUnlistedNames(presentUnlisted));
             } else {
                 item.finalRemarks.add("✅ Item follows all location/unlisted pairing rules");
             }
@@ -1670,19 +1699,19 @@ public class SKUComparerLogic {
 
         // --- Presence info (always add these for clarity) ---
         if (!presentLocations.isEmpty()) {
-            item.finalRemarks.add("📋 Present in locations: " + String.join(", ", presentLocations));
+            item.finalRemarks.add("📋 Present in locations: " + groups.joinLocationNames(presentLocations));
         }
         if (!presentUnlisted.isEmpty()) {
-            item.finalRemarks.add("📋 Present in unlisted: " + String.join(", ", presentUnlisted));
+            item.finalRemarks.add("📋 Present in unlisted: " + groups.joinUnlistedNames(presentUnlisted));
         }
 
         // Only show missing locations if they are actually an issue
         // CRITICAL FIX: Skip missing locations for POS Unavailable items entirely
         if (!missingLocations.isEmpty() && !presentLocations.isEmpty() && !inWebUnavailable && !inPosUnavailable) {
-            item.finalRemarks.add("📋 Missing from locations: " + String.join(", ", missingLocations));
+            item.finalRemarks.add("📋 Missing from locations: " + groups.joinLocationNames(missingLocations));
         }
 
-        System.out.println("DEBUG: Final status for " + item.primarySku + ": " + item.simpleStatus + " | Conflict: " + item.conflictStatus);
+        debug("DEBUG: Final status for " + item.primarySku + ": " + item.simpleStatus + " | Conflict: " + item.conflictStatus);
     }
 
     private static void detectInternalInconsistencies(Item item) {
@@ -1840,20 +1869,20 @@ public class SKUComparerLogic {
         Set<String> shortBarcodeSources = new HashSet<>();
         boolean hasShortBarcode = false;
 
-        System.out.println("DEBUG: Checking short barcodes for item: " + item.primarySku + " | " + item.primaryBarcode);
+        debug("DEBUG: Checking short barcodes for item: " + item.primarySku + " | " + item.primaryBarcode);
 
         for (Map.Entry<String, ItemSourceData> entry : item.sourceData.entrySet()) {
             String source = entry.getKey();
             ItemSourceData data = entry.getValue();
 
-            System.out.println("DEBUG: Source: " + source + " | Barcode: '" + data.rawBarcode + "' | Length: " + data.rawBarcode.length());
+            debug("DEBUG: Source: " + source + " | Barcode: '" + data.rawBarcode + "' | Length: " + data.rawBarcode.length());
 
             // Check for short barcodes (less than 3 characters)
             if (!data.rawBarcode.trim().isEmpty()) {
                 String barcode = data.rawBarcode.trim();
                 // Check for less than 3 characters
                 if (barcode.length() < 3) {
-                    System.out.println("DEBUG: FOUND SHORT BARCODE: '" + barcode + "' in source: " + source);
+                    debug("DEBUG: FOUND SHORT BARCODE: '" + barcode + "' in source: " + source);
                     shortBarcodeSources.add(source + "('" + barcode + "')");
                     hasShortBarcode = true;
                 }
@@ -1862,7 +1891,7 @@ public class SKUComparerLogic {
 
         // Also check primary barcode if it's not already covered above
         if (!item.primaryBarcode.isEmpty() && item.primaryBarcode.length() < 3) {
-            System.out.println("DEBUG: FOUND SHORT PRIMARY BARCODE: '" + item.primaryBarcode + "'");
+            debug("DEBUG: FOUND SHORT PRIMARY BARCODE: '" + item.primaryBarcode + "'");
             // Only add if not already detected in source data
             boolean alreadyDetected = shortBarcodeSources.stream()
                     .anyMatch(source -> source.contains("'" + item.primaryBarcode + "'"));
@@ -1873,7 +1902,7 @@ public class SKUComparerLogic {
         }
 
         if (hasShortBarcode) {
-            System.out.println("DEBUG: Setting SHORT_BARCODE conflict for item: " + item.primarySku);
+            debug("DEBUG: Setting SHORT_BARCODE conflict for item: " + item.primarySku);
             if (item.conflictStatus.isEmpty()) {
                 item.conflictStatus = "SHORT_BARCODE";
             } else if (!item.conflictStatus.contains("SHORT_BARCODE")) {
@@ -1881,11 +1910,11 @@ public class SKUComparerLogic {
             }
             item.finalRemarks.add("Short barcodes (<3 chars) in: " + String.join(", ", shortBarcodeSources));
         } else {
-            System.out.println("DEBUG: No short barcodes found for item: " + item.primarySku);
+            debug("DEBUG: No short barcodes found for item: " + item.primarySku);
         }
     }
 
-    // Keep the original getStringValue method as backup, but use getFormattedCellValue in readItems
+    // Keep the original getStringValue method as backup; rows are read as formatted text by XlsxStreamingReader
     private static String getStringValue(Cell cell) {
         if (cell == null) return "";
         try {
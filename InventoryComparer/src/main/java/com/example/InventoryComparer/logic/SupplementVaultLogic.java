@@ -9,7 +9,8 @@ import java.util.stream.Collectors;
 
 public class SupplementVaultLogic {
 
-    private static final DataFormatter dataFormatter = new DataFormatter();
+    // DataFormatter is not thread-safe - one per thread so concurrent requests never share an instance
+    private static final ThreadLocal<DataFormatter> dataFormatter = ThreadLocal.withInitial(DataFormatter::new);
 
     // ===== Data Structures =====
 
@@ -84,6 +85,17 @@ public class SupplementVaultLogic {
             int daysRemainingOnline, int daysRemainingOutlet,
             int totalDays, int reportDay, File outputFile
     ) throws Exception {
+        ReportWorkbooks.write(buildReport(orderFiles, couponFile, targetFile,
+                daysRemainingOnline, daysRemainingOutlet, totalDays, reportDay), outputFile);
+    }
+
+    // Builds the finished workbook without writing it, so callers can stream it (e.g. into an HTTP
+    // response). The caller must write or release it via ReportWorkbooks.
+    public static Workbook buildReport(
+            List<File> orderFiles, File couponFile, File targetFile,
+            int daysRemainingOnline, int daysRemainingOutlet,
+            int totalDays, int reportDay
+    ) throws Exception {
 
         // 1. Read all order reports, tag with company, merge into ALL
         List<OrderRow> allOrders = new ArrayList<>();
@@ -223,8 +235,9 @@ public class SupplementVaultLogic {
             }
         }
 
-        // 6. Write the output workbook
-        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+        // 6. Build the output workbook
+        XSSFWorkbook wb = new XSSFWorkbook();
+        try {
             // --- Sheet 1: ALL (merged order data) ---
             writeAllSheet(wb, allOrders, orderHeaders);
 
@@ -239,10 +252,10 @@ public class SupplementVaultLogic {
             if (!extraMerchants.isEmpty()) {
                 writeExtraMerchantsSheet(wb, extraMerchants);
             }
-
-            try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                wb.write(fos);
-            }
+            return wb;
+        } catch (Exception e) {
+            ReportWorkbooks.release(wb);
+            throw e;
         }
     }
 
@@ -335,8 +348,7 @@ public class SupplementVaultLogic {
                                          int totalDays, int reportDay) throws Exception {
 
         // Copy the target file's first sheet as the Report sheet
-        try (FileInputStream fis = new FileInputStream(targetFile);
-             Workbook srcWb = WorkbookFactory.create(fis)) {
+        try (Workbook srcWb = WorkbookSources.openReadOnly(targetFile)) {
 
             Sheet srcSheet = srcWb.getSheetAt(0);
             Sheet destSheet = wb.createSheet("Report");
@@ -555,8 +567,7 @@ public class SupplementVaultLogic {
 
     private static List<Map<String, String>> readExcel(File file) throws Exception {
         List<Map<String, String>> rows = new ArrayList<>();
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook wb = WorkbookFactory.create(fis)) {
+        try (Workbook wb = WorkbookSources.openReadOnly(file)) {
 
             Sheet sheet = wb.getSheetAt(0);
             Row headerRow = sheet.getRow(0);
@@ -565,7 +576,7 @@ public class SupplementVaultLogic {
             List<String> headers = new ArrayList<>();
             for (int c = 0; c < headerRow.getLastCellNum(); c++) {
                 Cell cell = headerRow.getCell(c);
-                String hdr = cell != null ? dataFormatter.formatCellValue(cell).trim() : "Column" + c;
+                String hdr = cell != null ? dataFormatter.get().formatCellValue(cell).trim() : "Column" + c;
                 headers.add(hdr);
             }
 
@@ -588,7 +599,7 @@ public class SupplementVaultLogic {
                 boolean hasData = false;
                 for (int c = 0; c < headers.size(); c++) {
                     Cell cell = row.getCell(c);
-                    String val = cell != null ? dataFormatter.formatCellValue(cell).trim() : "";
+                    String val = cell != null ? dataFormatter.get().formatCellValue(cell).trim() : "";
                     if (!val.isEmpty()) hasData = true;
                     map.put(headers.get(c), val);
                 }
@@ -665,8 +676,7 @@ public class SupplementVaultLogic {
     private static List<MerchantCoupon> readCouponFile(File file) throws Exception {
         List<MerchantCoupon> coupons = new ArrayList<>();
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook wb = WorkbookFactory.create(fis)) {
+        try (Workbook wb = WorkbookSources.openReadOnly(file)) {
 
             Sheet sheet = wb.getSheetAt(0);
 
@@ -678,7 +688,7 @@ public class SupplementVaultLogic {
                 StringBuilder sb = new StringBuilder("[SV-DEBUG]   Row " + r + " (cells=" + row.getLastCellNum() + "): ");
                 for (int c = 0; c < row.getLastCellNum(); c++) {
                     Cell cell = row.getCell(c);
-                    String val = cell != null ? dataFormatter.formatCellValue(cell) : "<null>";
+                    String val = cell != null ? dataFormatter.get().formatCellValue(cell) : "<null>";
                     sb.append("[").append(c).append("]=\"").append(val).append("\" ");
                 }
                 System.out.println(sb.toString());
@@ -692,7 +702,7 @@ public class SupplementVaultLogic {
                 for (int c = 0; c < row.getLastCellNum(); c++) {
                     Cell cell = row.getCell(c);
                     if (cell == null) continue;
-                    String val = dataFormatter.formatCellValue(cell).trim().toLowerCase();
+                    String val = dataFormatter.get().formatCellValue(cell).trim().toLowerCase();
                     if (val.contains("coupon") || val.contains("owner") || val.contains("mer")) {
                         headerRowIdx = r;
                         break;
@@ -714,7 +724,7 @@ public class SupplementVaultLogic {
             System.out.println("[SV-DEBUG] Scanning coupon headers from row " + headerRowIdx + ":");
             for (int c = 0; c < headerRow.getLastCellNum(); c++) {
                 Cell cell = headerRow.getCell(c);
-                String h = cell != null ? dataFormatter.formatCellValue(cell).trim() : "";
+                String h = cell != null ? dataFormatter.get().formatCellValue(cell).trim() : "";
                 String hLower = h.toLowerCase();
                 System.out.println("[SV-DEBUG]   Col " + c + ": \"" + h + "\"");
 
@@ -737,7 +747,7 @@ public class SupplementVaultLogic {
                 // Maybe the header just says "Coupon Code" without "code" — try broader match
                 for (int c = 0; c < headerRow.getLastCellNum(); c++) {
                     if (c == colMerchant || c == colType) continue;
-                    String hLower = dataFormatter.formatCellValue(headerRow.getCell(c)).trim().toLowerCase();
+                    String hLower = dataFormatter.get().formatCellValue(headerRow.getCell(c)).trim().toLowerCase();
                     if (hLower.contains("coupon") || hLower.contains("discount") || hLower.contains("code")) {
                         colCode = c;
                         break;
@@ -753,9 +763,9 @@ public class SupplementVaultLogic {
                 Row row = sheet.getRow(r);
                 if (row == null) continue;
 
-                String merchantName = colMerchant >= 0 ? dataFormatter.formatCellValue(row.getCell(colMerchant)).trim() : "";
-                String code = colCode >= 0 ? dataFormatter.formatCellValue(row.getCell(colCode)).trim() : "";
-                String type = colType >= 0 ? dataFormatter.formatCellValue(row.getCell(colType)).trim() : "";
+                String merchantName = colMerchant >= 0 ? dataFormatter.get().formatCellValue(row.getCell(colMerchant)).trim() : "";
+                String code = colCode >= 0 ? dataFormatter.get().formatCellValue(row.getCell(colCode)).trim() : "";
+                String type = colType >= 0 ? dataFormatter.get().formatCellValue(row.getCell(colType)).trim() : "";
 
                 if (merchantName.isEmpty() && code.isEmpty()) continue;
 
@@ -773,8 +783,7 @@ public class SupplementVaultLogic {
     private static List<TargetRow> readTargetTable(File file) throws Exception {
         List<TargetRow> result = new ArrayList<>();
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook wb = WorkbookFactory.create(fis)) {
+        try (Workbook wb = WorkbookSources.openReadOnly(file)) {
 
             Sheet sheet = wb.getSheetAt(0);
             int headerRowIdx = findHeaderRow(sheet);
@@ -858,7 +867,7 @@ public class SupplementVaultLogic {
                 if (colTarget >= 0) {
                     Cell tCell = row.getCell(colTarget);
                     String tType = tCell != null ? tCell.getCellType().name() : "NULL";
-                    String tRaw = tCell != null ? dataFormatter.formatCellValue(tCell) : "null";
+                    String tRaw = tCell != null ? dataFormatter.get().formatCellValue(tCell) : "null";
                     System.out.println("[SV-DEBUG]   Row " + r + ": merchant=\"" + merchant + "\" target=" + tr.target
                             + " (cellType=" + tType + " raw=\"" + tRaw + "\")");
                 }
@@ -947,7 +956,7 @@ public class SupplementVaultLogic {
         if (row == null) return "";
         Cell cell = row.getCell(col);
         if (cell == null) return "";
-        return dataFormatter.formatCellValue(cell);
+        return dataFormatter.get().formatCellValue(cell);
     }
 
     private static double getCellNumeric(Row row, int col) {
@@ -971,7 +980,7 @@ public class SupplementVaultLogic {
 
         // Try 3: Parse formatted string
         try {
-            String s = dataFormatter.formatCellValue(cell);
+            String s = dataFormatter.get().formatCellValue(cell);
             if (s != null && !s.trim().isEmpty()) {
                 String cleaned = s.replaceAll("[^\\d.\\-]", "");
                 if (!cleaned.isEmpty()) return Double.parseDouble(cleaned);
@@ -1071,14 +1080,14 @@ public class SupplementVaultLogic {
                         } catch (Exception e) {
                             // If formula can't be copied, copy cached value instead
                             try { destCell.setCellValue(srcCell.getNumericCellValue()); }
-                            catch (Exception e2) { destCell.setCellValue(dataFormatter.formatCellValue(srcCell)); }
+                            catch (Exception e2) { destCell.setCellValue(dataFormatter.get().formatCellValue(srcCell)); }
                         }
                         break;
                     case BLANK:
                         destCell.setBlank();
                         break;
                     default:
-                        destCell.setCellValue(dataFormatter.formatCellValue(srcCell));
+                        destCell.setCellValue(dataFormatter.get().formatCellValue(srcCell));
                         break;
                 }
 
@@ -0,0 +1,34 @@
+// File: WorkbookSources.java
+package com.example.InventoryComparer.logic;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Opens uploaded workbooks for reading.
+ * Files are opened in place and read-only (random access into the zip / OLE2 container), instead of
+ * pulling the whole file through a FileInputStream, which makes POI buffer every zip entry on the heap first.
+ */
+final class WorkbookSources {
+
+    private WorkbookSources() {}
+
+    /** Opens an .xlsx or .xls file read-only; the format is detected from the content, not the extension. */
+    static Workbook openReadOnly(File file) throws IOException {
+        return WorkbookFactory.create(file, null, true);
+    }
+
+    static Workbook openReadOnly(Path path) throws IOException {
+        return openReadOnly(path.toFile());
+    }
+
+    /** For sources that only exist as a stream; this buffers the content in memory like before. */
+    static Workbook open(InputStream in) throws IOException {
+        return WorkbookFactory.create(in);
+    }
+}
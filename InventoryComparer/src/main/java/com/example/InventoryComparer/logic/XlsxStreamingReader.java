@@ -0,0 +1,103 @@
+// File: XlsxStreamingReader.java
+package com.example.InventoryComparer.logic;
+
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Event-model (SAX) reader for the first sheet of an .xlsx file.
+ * Rows are pushed to a {@link RowHandler} one at a time, so no workbook DOM is ever built.
+ */
+final class XlsxStreamingReader {
+
+    /** Receives each non-empty row of the sheet, in file order. */
+    interface RowHandler {
+        /**
+         * @param rowNum 0-based row index as stored in the sheet
+         * @param values formatted cell text indexed by column; missing cells are null
+         */
+        void row(int rowNum, String[] values);
+    }
+
+    private XlsxStreamingReader() {}
+
+    /** Streams the first sheet of the workbook through the handler. */
+    static void readFirstSheet(File file, RowHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) return;
+
+            // DataFormatter is not thread-safe, so every read gets its own
+            DataFormatter formatter = new DataFormatter();
+            XMLReader parser = SAXHelper.newXMLReader();
+            parser.setContentHandler(new XSSFSheetXMLHandler(styles, sharedStrings, new RowCollector(handler), formatter, false));
+
+            try (InputStream sheet = sheets.next()) {
+                parser.parse(new InputSource(sheet));
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Could not read workbook: " + file.getName() + " - " + e.getMessage(), e);
+        }
+    }
+
+    /** Returns the trimmed cell text at the given column, or "" if the column is absent. */
+    static String value(String[] values, int col) {
+        if (col < 0 || col >= values.length || values[col] == null) return "";
+        return values[col].trim();
+    }
+
+    // Collects the cells of the current row and hands the finished row to the RowHandler
+    private static class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RowHandler handler;
+        private final List<String> current = new ArrayList<>();
+        private int currentRow = -1;
+
+        RowCollector(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            currentRow = rowNum;
+            current.clear();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (!current.isEmpty()) {
+                handler.row(currentRow, current.toArray(new String[0]));
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int col = cellReference != null ? new CellReference(cellReference).getCol() : current.size();
+            while (current.size() <= col) current.add(null);
+            current.set(col, formattedValue);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.InventoryComparer.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Heap budget for report generation. Every heavy request reserves an estimate of the memory it will need
+ * (upload size x a per-comparer expansion factor) before it runs; requests that do not fit wait in a FIFO queue,
+ * and once {@code comparer.admission.maxQueued} are waiting new ones are turned away instead of risking an OOM.
+ */
+@Service
+public class AdmissionController {
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * Rough heap needed per MB of (compressed .xlsx) upload. The SKU comparer reads its inputs with the
+     * streaming SAX reader; the others build full POI DOMs, which are 10-20x the file size.
+     */
+    public enum ReportType {
+        SKU(6), PRICE(15), PO_STOCK(15), LOYALTY(15), SUPPLEMENT_VAULT(15);
+
+        private final int expansionFactor;
+
+        ReportType(int expansionFactor) {
+            this.expansionFactor = expansionFactor;
+        }
+    }
+
+    /** Thrown when the request cannot be admitted (queue full or waited too long). */
+    public static class AdmissionRejectedException extends Exception {
+        public AdmissionRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /** Reserved share of the budget; close it when the request (including its response) is done. */
+    public class Permit implements AutoCloseable {
+        private final int reservedMb;
+        private boolean released = false;
+
+        private Permit(int reservedMb) {
+            this.reservedMb = reservedMb;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) return;
+            released = true;
+            budget.release(reservedMb);
+        }
+    }
+
+    private final int budgetMb;
+    private final int maxQueued;
+    private final long maxWaitSeconds;
+    private final int baseCostMb;
+    private final Semaphore budget;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public AdmissionController(@Value("${comparer.admission.heapBudgetMb:0}") int heapBudgetMb,
+                               @Value("${comparer.admission.maxQueued:10}") int maxQueued,
+                               @Value("${comparer.admission.maxWaitSeconds:120}") long maxWaitSeconds,
+                               @Value("${comparer.admission.baseCostMb:32}") int baseCostMb) {
+        // 0 = 60% of the max heap, leaving room for Spring, Tomcat and the upload buffers
+        this.budgetMb = heapBudgetMb > 0 ? heapBudgetMb
+                : (int) Math.max(64, Runtime.getRuntime().maxMemory() / MB * 60 / 100);
+        this.maxQueued = maxQueued;
+        this.maxWaitSeconds = maxWaitSeconds;
+        this.baseCostMb = baseCostMb;
+        this.budget = new Semaphore(budgetMb, true);
+        System.out.println("Report admission budget: " + budgetMb + " MB, max queued requests: " + maxQueued);
+    }
+
+    /** Estimated heap cost in MB, capped at the whole budget so one oversized request can still run alone. */
+    public int estimateCostMb(ReportType type, long uploadBytes) {
+        long uploadMb = uploadBytes > 0 ? (uploadBytes + MB - 1) / MB : 0;
+        long cost = baseCostMb + uploadMb * type.expansionFactor;
+        return (int) Math.min(budgetMb, Math.max(1, cost));
+    }
+
+    /**
+     * Reserves budget for a request, queueing behind earlier requests if needed.
+     *
+     * @throws AdmissionRejectedException if too many requests are already waiting or the wait times out
+     */
+    public Permit acquire(ReportType type, long uploadBytes) throws AdmissionRejectedException, InterruptedException {
+        int cost = estimateCostMb(type, uploadBytes);
+        // Zero-timeout tryAcquire honours fairness, so new arrivals never overtake requests already queued
+        if (budget.tryAcquire(cost, 0, TimeUnit.SECONDS)) return new Permit(cost);
+
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            throw new AdmissionRejectedException("Too many report requests are waiting (" + maxQueued + ")");
+        }
+        try {
+            System.out.println("Queueing " + type + " request (" + cost + " MB, " + budget.availablePermits() + " MB free)");
+            if (!budget.tryAcquire(cost, maxWaitSeconds, TimeUnit.SECONDS)) {
+                throw new AdmissionRejectedException("Timed out after " + maxWaitSeconds + "s waiting for report capacity");
+            }
+            return new Permit(cost);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /** Reserves budget without a queue limit or timeout; for background jobs whose pool already bounds them. */
+    public Permit acquireBlocking(ReportType type, long uploadBytes) throws InterruptedException {
+        int cost = estimateCostMb(type, uploadBytes);
+        budget.acquire(cost);
+        return new Permit(cost);
+    }
+
+    public int getBudgetMb() { return budgetMb; }
+    public int getAvailableMb() { return budget.availablePermits(); }
+    public int getQueuedRequests() { return waiting.get(); }
+}
@@ -0,0 +1,228 @@
+package com.example.InventoryComparer.service;
+
+import com.example.InventoryComparer.logic.ReportWorkbooks;
+import jakarta.annotation.PreDestroy;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs report generation in the background: submit returns a job id straight away, the job is executed on a
+ * bounded pool ({@code comparer.jobs.threads} workers, {@code comparer.jobs.queueCapacity} waiting jobs) and the
+ * finished workbook is kept in the job's staging area until it is downloaded/discarded or expires.
+ */
+@Service
+public class ReportJobService {
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    /** Lets a running job report how far it got. */
+    public interface Progress {
+        void update(int percent, String stage);
+    }
+
+    /** The work of one job; the returned workbook is written to the job's result file. */
+    public interface ReportTask {
+        Workbook build(Progress progress) throws Exception;
+    }
+
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final Duration retention;
+    private final AdmissionController admissionController;
+
+    public ReportJobService(AdmissionController admissionController,
+                            @Value("${comparer.jobs.threads:2}") int threads,
+                            @Value("${comparer.jobs.queueCapacity:20}") int queueCapacity,
+                            @Value("${comparer.jobs.retentionMinutes:30}") long retentionMinutes) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "report-job-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.retention = Duration.ofMinutes(retentionMinutes);
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Queues a job. The staging area (uploads + result) and any extra resources now belong to the job and are
+     * closed when it is discarded or expires.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public ReportJob submit(AdmissionController.ReportType type, String downloadName, UploadStagingService.StagingArea staging,
+                            ReportTask task, AutoCloseable... resources) {
+        evictExpired();
+
+        ReportJob job = new ReportJob(UUID.randomUUID().toString(), type, downloadName, staging, resources);
+        jobs.put(job.id, job);
+        try {
+            job.future = executor.submit(() -> run(job, task));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            job.release();
+            throw e;
+        }
+        System.out.println("Report job " + job.id + " (" + job.getType() + ") queued");
+        return job;
+    }
+
+    /** Returns the job, or null if it is unknown or expired. */
+    public ReportJob get(String jobId) {
+        evictExpired();
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Cancels the job and deletes everything it owns. A job whose worker has already started keeps its files
+     * until the worker returns (POI parsing does not stop on interrupt); the worker then releases them.
+     */
+    public boolean discard(String jobId) {
+        ReportJob job = jobs.remove(jobId);
+        if (job == null) return false;
+        if (job.future != null) job.future.cancel(true);
+        boolean releaseNow;
+        synchronized (job) {
+            job.discarded = true;
+            releaseNow = !job.workerStarted || job.finishedAt != null;
+        }
+        if (releaseNow) job.release();
+        return true;
+    }
+
+    private void run(ReportJob job, ReportTask task) {
+        synchronized (job) {
+            if (job.discarded) return;
+            job.workerStarted = true;
+        }
+        AdmissionController.Permit permit = null;
+        try {
+            // Jobs share the heap budget with the synchronous endpoints; the pool already bounds how many wait
+            job.stage = "Waiting for capacity";
+            permit = admissionController.acquireBlocking(job.reportType, job.staging.stagedBytes());
+            job.state = State.RUNNING;
+            job.startedAt = Instant.now();
+            job.update(5, "Started");
+            Workbook report = task.build(job::update);
+            job.update(90, "Writing workbook");
+            File result = job.staging.outputFile(job.downloadName);
+            ReportWorkbooks.write(report, result);
+            job.resultFile = result;
+            job.update(100, "Done");
+            job.state = State.SUCCEEDED;
+        } catch (Exception | OutOfMemoryError e) {
+            e.printStackTrace();
+            job.error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            job.state = State.FAILED;
+        } finally {
+            if (permit != null) permit.close();
+            boolean discarded;
+            synchronized (job) {
+                job.finishedAt = Instant.now();
+                discarded = job.discarded;
+            }
+            if (discarded) {
+                job.release(); // discard() left the staging area to us while we were still using it
+            } else {
+                job.closeResources();
+            }
+            System.out.println("Report job " + job.id + " finished: " + job.state + (discarded ? " (discarded)" : ""));
+        }
+    }
+
+    // Drops finished jobs (and their files) once they are older than the retention period
+    private void evictExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> {
+            boolean expired = job.finishedAt != null && job.finishedAt.isBefore(cutoff);
+            if (expired) job.release();
+            return expired;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        jobs.values().forEach(ReportJob::release);
+        jobs.clear();
+    }
+
+    /** State of one submitted report. Fields written by the worker are volatile so polling threads see them. */
+    public static class ReportJob {
+        private final String id;
+        private final AdmissionController.ReportType reportType;
+        private final String downloadName;
+        private final UploadStagingService.StagingArea staging;
+        private final AutoCloseable[] resources;
+        private final Instant submittedAt = Instant.now();
+
+        private volatile State state = State.QUEUED;
+        private volatile int progress = 0;
+        private volatile String stage = "Queued";
+        private volatile String error;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile File resultFile;
+        private volatile Future<?> future;
+        // Guarded by the job's monitor: decides whether discard() or the worker releases the staging area
+        private boolean workerStarted;
+        private boolean discarded;
+
+        ReportJob(String id, AdmissionController.ReportType reportType, String downloadName,
+                  UploadStagingService.StagingArea staging, AutoCloseable[] resources) {
+            this.id = id;
+            this.reportType = reportType;
+            this.downloadName = downloadName;
+            this.staging = staging;
+            this.resources = resources;
+        }
+
+        private void update(int percent, String stage) {
+            this.progress = Math.max(progress, Math.min(100, percent));
+            this.stage = stage;
+        }
+
+        private void closeResources() {
+            for (AutoCloseable resource : resources) {
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                    System.err.println("Could not close job resource: " + e.getMessage());
+                }
+            }
+        }
+
+        private void release() {
+            closeResources();
+            staging.close();
+        }
+
+        public String getId() { return id; }
+        public String getType() { return reportType.name().toLowerCase(); }
+        public String getDownloadName() { return downloadName; }
+        public State getState() { return state; }
+        public int getProgress() { return progress; }
+        public String getStage() { return stage; }
+        public String getError() { return error; }
+        public Instant getSubmittedAt() { return submittedAt; }
+        public Instant getStartedAt() { return startedAt; }
+        public Instant getFinishedAt() { return finishedAt; }
+        /** The finished workbook, or null until the job has succeeded. */
+        public File getResultFile() { return resultFile; }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.InventoryComparer.service;
+
+import com.example.InventoryComparer.logic.ContentHashes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk-backed cache of finished report workbooks, keyed by the content hashes (and display names) of all
+ * uploaded inputs plus the request parameters. Identical requests get the stored workbook without running the
+ * comparison again. Bounded by {@code comparer.resultCache.maxMb} (least recently used first) and
+ * {@code comparer.resultCache.ttlMinutes}. The directory is emptied on startup: keys do not cover the comparer
+ * logic, so a workbook stored by a previous build must never be served by the next one.
+ */
+@Service
+public class ReportResultCache {
+
+    /** Snapshot of the cache counters. */
+    public record Stats(long hits, long misses, long stores, long evictions, int entries, long bytes, long maxBytes) {}
+
+    /** Builds a cache key from the report type, its parameters and its inputs (in order). */
+    public static class KeyBuilder {
+        private final StringBuilder text = new StringBuilder();
+
+        private KeyBuilder(String reportType) {
+            text.append("type=").append(reportType).append('\n');
+        }
+
+        public KeyBuilder param(String name, Object value) {
+            text.append("param:").append(name).append('=').append(value).append('\n');
+            return this;
+        }
+
+        /** Adds a staged input; its display name matters too, because location names end up in the report. */
+        public KeyBuilder input(String role, File file, UploadStagingService.StagingArea staging) throws IOException {
+            text.append("input:").append(role).append(':').append(staging.displayName(file))
+                    .append('=').append(staging.contentHash(file)).append('\n');
+            return this;
+        }
+
+        public KeyBuilder inputs(String role, List<File> files, UploadStagingService.StagingArea staging) throws IOException {
+            for (File file : files) input(role, file, staging);
+            return this;
+        }
+
+        public String build() {
+            return ContentHashes.sha256(text.toString());
+        }
+    }
+
+    /** A result being written; commit it once the whole workbook has been written, abort otherwise. */
+    public class PendingResult {
+        private final String key;
+        private final File tempFile;
+        private final OutputStream stream;
+        private boolean aborted;
+
+        private PendingResult(String key, File tempFile) throws IOException {
+            this.key = key;
+            this.tempFile = tempFile;
+            this.stream = new FileOutputStream(tempFile);
+        }
+
+        public OutputStream stream() {
+            return stream;
+        }
+
+        public void commit() {
+            if (aborted) return;
+            try {
+                stream.close();
+                File target = resultFile(key);
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                long now = System.currentTimeMillis();
+                CachedResult previous = entries.put(key, new CachedResult(target, target.length(), now, now));
+                if (previous != null) currentBytes.addAndGet(-previous.size);
+                currentBytes.addAndGet(target.length());
+                stores.incrementAndGet();
+                evict();
+            } catch (IOException e) {
+                System.err.println("Could not store report in result cache: " + e.getMessage());
+                abort();
+            }
+        }
+
+        public void abort() {
+            aborted = true;
+            try {
+                stream.close();
+            } catch (IOException ignored) {}
+            tempFile.delete();
+        }
+    }
+
+    private static class CachedResult {
+        final File file;
+        final long size;
+        final long createdAt;
+        volatile long lastAccess;
+
+        CachedResult(File file, long size, long createdAt, long lastAccess) {
+            this.file = file;
+            this.size = size;
+            this.createdAt = createdAt;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final String SUFFIX = ".xlsx";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Map<String, CachedResult> entries = new ConcurrentHashMap<>();
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ReportResultCache(@Value("${comparer.resultCache.dir:${java.io.tmpdir}/ic_result_cache}") String directory,
+                             @Value("${comparer.resultCache.maxMb:512}") long maxMb,
+                             @Value("${comparer.resultCache.ttlMinutes:60}") long ttlMinutes) throws IOException {
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.maxBytes = maxMb * 1024L * 1024L;
+        this.ttlMillis = Duration.ofMinutes(ttlMinutes).toMillis();
+        Files.createDirectories(this.directory);
+        deleteStoredResults();
+    }
+
+    public static KeyBuilder key(String reportType) {
+        return new KeyBuilder(reportType);
+    }
+
+    /**
+     * Opens the stored workbook for this key, or returns null on a miss / expired entry. The stream is opened
+     * here so a later eviction or {@link #clear()} cannot delete the file before the caller has streamed it;
+     * the caller must close it.
+     */
+    public InputStream lookup(String key) {
+        CachedResult result = entries.get(key);
+        if (result != null && !isExpired(result, System.currentTimeMillis())) {
+            try {
+                InputStream stored = Files.newInputStream(result.file.toPath());
+                result.lastAccess = System.currentTimeMillis();
+                hits.incrementAndGet();
+                return stored;
+            } catch (IOException e) {
+                // Deleted or unreadable: treat as a miss
+            }
+        }
+        if (result != null) remove(key);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /** Starts storing a result; returns null (no caching) if the temp file cannot be created. */
+    public PendingResult begin(String key) {
+        if (maxBytes <= 0) return null;
+        try {
+            return new PendingResult(key, Files.createTempFile(directory, "pending_", ".tmp").toFile());
+        } catch (IOException e) {
+            System.err.println("Result cache unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.get(), misses.get(), stores.get(), evictions.get(), entries.size(), currentBytes.get(), maxBytes);
+    }
+
+    public void clear() {
+        new ArrayList<>(entries.keySet()).forEach(this::remove);
+    }
+
+    // Drops expired entries, then least recently used ones until the byte budget is met
+    private synchronized void evict() {
+        long now = System.currentTimeMillis();
+        entries.entrySet().stream()
+                .filter(entry -> isExpired(entry.getValue(), now))
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(this::evictEntry);
+
+        if (currentBytes.get() <= maxBytes) return;
+        List<Map.Entry<String, CachedResult>> byAccess = new ArrayList<>(entries.entrySet());
+        byAccess.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        for (Map.Entry<String, CachedResult> entry : byAccess) {
+            if (currentBytes.get() <= maxBytes) break;
+            evictEntry(entry.getKey());
+        }
+    }
+
+    private void evictEntry(String key) {
+        if (remove(key)) evictions.incrementAndGet();
+    }
+
+    private boolean remove(String key) {
+        CachedResult removed = entries.remove(key);
+        if (removed == null) return false;
+        currentBytes.addAndGet(-removed.size);
+        // Downloads still streaming this file read from the handle lookup() opened
+        removed.file.delete();
+        return true;
+    }
+
+    private boolean isExpired(CachedResult result, long now) {
+        return now - result.createdAt > ttlMillis;
+    }
+
+    private File resultFile(String key) {
+        return directory.resolve(key + SUFFIX).toFile();
+    }
+
+    // Results (and leftovers of interrupted writes) from a previous run may come from different comparer logic
+    private void deleteStoredResults() {
+        File[] files = directory.toFile().listFiles();
+        if (files == null) return;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.isFile() && file.delete()) deleted++;
+        }
+        if (deleted > 0) System.out.println("Result cache: removed " + deleted + " file(s) from a previous run");
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.InventoryComparer.service;
+
+import com.example.InventoryComparer.logic.ContentHashes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Gives every request its own scratch directory for uploads and outputs.
+ * Each upload is written to its own sub-directory under its original file name (the comparers derive
+ * location names from file names), so two requests uploading "Colombo.xlsx" never touch the same file.
+ */
+@Service
+public class UploadStagingService {
+
+    private final Path stagingRoot;
+
+    public UploadStagingService(@Value("${comparer.staging.dir:${java.io.tmpdir}}") String stagingRoot) {
+        this.stagingRoot = Paths.get(stagingRoot).toAbsolutePath();
+    }
+
+    /** Opens a new isolated staging area; close it (try-with-resources) once the response has been built. */
+    public StagingArea open(String purpose) throws IOException {
+        Files.createDirectories(stagingRoot);
+        return new StagingArea(Files.createTempDirectory(stagingRoot, "ic_" + purpose + "_"));
+    }
+
+    /** One request's scratch directory: staged uploads, their display names and the report output. */
+    public static class StagingArea implements AutoCloseable {
+
+        private final Path directory;
+        private final Map<File, String> displayNames = new LinkedHashMap<>();
+        private final ContentHashes.Memo contentHashes = new ContentHashes.Memo();
+        private int uploadCounter = 0;
+
+        StagingArea(Path directory) {
+            this.directory = directory;
+        }
+
+        public File getDirectory() {
+            return directory.toFile();
+        }
+
+        /** Moves the upload to "<area>/upload-N/<original name>" and remembers the original name. */
+        public synchronized File stage(MultipartFile multipartFile) throws IOException {
+            uploadCounter++;
+            String displayName = multipartFile.getOriginalFilename();
+            String fileName = safeFileName(displayName, "upload-" + uploadCounter + ".xlsx");
+
+            Path uploadDir = Files.createDirectory(directory.resolve("upload-" + uploadCounter));
+            File stagedFile = uploadDir.resolve(fileName).toFile();
+            // transferTo moves the part Spring already spooled to disk (or streams it), never via getBytes()
+            multipartFile.transferTo(stagedFile);
+
+            displayNames.put(stagedFile, displayName != null ? displayName : fileName);
+            return stagedFile;
+        }
+
+        /** Original (client-side) name of a staged upload, or the file's own name for anything else. */
+        public synchronized String displayName(File file) {
+            return displayNames.getOrDefault(file, file.getName());
+        }
+
+        /** Copy of the staged-file → original-name map, in upload order. */
+        public synchronized Map<File, String> displayNames() {
+            return new LinkedHashMap<>(displayNames);
+        }
+
+        /** SHA-256 of a staged upload; each file is hashed once and shared by every cache in the request. */
+        public String contentHash(File file) throws IOException {
+            return contentHashes.sha256(file);
+        }
+
+        /** Digest memo to hand to this request's ComparisonContext. */
+        public ContentHashes.Memo contentHashes() {
+            return contentHashes;
+        }
+
+        /** Total size of the staged uploads, used to estimate the memory a report will need. */
+        public synchronized long stagedBytes() {
+            long total = 0;
+            for (File file : displayNames.keySet()) total += file.length();
+            return total;
+        }
+
+        /** Allocates (but does not create) an output file inside this staging area. */
+        public File outputFile(String fileName) throws IOException {
+            Path outputDir = Files.createDirectories(directory.resolve("output"));
+            return outputDir.resolve(safeFileName(fileName, "report.xlsx")).toFile();
+        }
+
+        /** Deletes the whole staging directory, including anything the comparers wrote into it. */
+        @Override
+        public void close() {
+            if (!Files.exists(directory)) return;
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        System.err.println("Could not delete staged file: " + path + " - " + e.getMessage());
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Could not clean up staging area: " + directory + " - " + e.getMessage());
+            }
+        }
+
+        // Keeps only the last path segment of a client-supplied name so it can't escape the upload directory
+        private static String safeFileName(String name, String fallback) {
+            if (name == null) return fallback;
+            String fileName = name.replace('\\', '/');
+            fileName = fileName.substring(fileName.lastIndexOf('/') + 1).trim();
+            if (fileName.isEmpty() || fileName.equals(".") || fileName.equals("..")) return fallback;
+            return fileName;
+        }
+    }
+}
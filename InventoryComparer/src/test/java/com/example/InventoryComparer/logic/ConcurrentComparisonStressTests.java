@@ -0,0 +1,170 @@
+package com.example.InventoryComparer.logic;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ConcurrentComparisonStressTests {
+
+	private static final int ROWS = 150;
+	private static final int ROUNDS = 3;
+
+	@TempDir
+	Path tempDir;
+
+	private List<File> skuLocations;
+	private List<File> skuUnlisted;
+	private File priceReference;
+	private List<File> priceLocations;
+	private final AtomicInteger outputCounter = new AtomicInteger();
+
+	@BeforeEach
+	void createInputs() throws IOException {
+		skuLocations = List.of(
+				writeSkuFile("Colombo.xlsx", false, 0),
+				writeSkuFile("Cosmetics.lk.xlsx", false, 3),
+				writeSkuFile("OGF Store.xlsx", true, 5));
+		skuUnlisted = List.of(
+				writeSkuFile("WEB Unlisted.xlsx", false, 7),
+				writeSkuFile("OGF Unlisted.xlsx", true, 11));
+		priceReference = writePriceFile("Reference.xlsx", false, 0);
+		priceLocations = List.of(
+				writePriceFile("Kandy.xlsx", false, 4),
+				writePriceFile("OGF Outlet.xlsx", true, 6));
+	}
+
+	@Test
+	void concurrentReportsMatchSerialReports() throws Exception {
+		String serialOgf = runSku(true);
+		String serialCosmetics = runSku(false);
+		String serialPrice = runPrice();
+		// The two rule sets must actually disagree, otherwise a leaked flag would go unnoticed
+		assertNotEquals(serialOgf, serialCosmetics);
+
+		ExecutorService pool = Executors.newFixedThreadPool(6);
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				List<Callable<String[]>> tasks = new ArrayList<>();
+				for (int i = 0; i < 2; i++) {
+					tasks.add(() -> new String[]{serialOgf, runSku(true)});
+					tasks.add(() -> new String[]{serialCosmetics, runSku(false)});
+					tasks.add(() -> new String[]{serialPrice, runPrice()});
+				}
+				for (Future<String[]> result : pool.invokeAll(tasks)) {
+					String[] expectedAndActual = result.get();
+					assertEquals(expectedAndActual[0], expectedAndActual[1]);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private String runSku(boolean ogfRules) throws IOException {
+		File output = tempDir.resolve("sku_" + outputCounter.incrementAndGet() + ".xlsx").toFile();
+		try (ComparisonContext context = new ComparisonContext(ogfRules)) {
+			SKUComparerLogic.generateReport(skuLocations, skuUnlisted, output, context);
+		}
+		return dump(output);
+	}
+
+	private String runPrice() throws IOException {
+		File output = tempDir.resolve("price_" + outputCounter.incrementAndGet() + ".xlsx").toFile();
+		Map<File, String> names = new HashMap<>();
+		names.put(priceReference, priceReference.getName());
+		for (File location : priceLocations) names.put(location, location.getName());
+		try (ComparisonContext context = new ComparisonContext(true)) {
+			PriceComparerLogic.generateReport(priceReference, priceLocations, output, names, context);
+		}
+		return dump(output);
+	}
+
+	private File writeSkuFile(String name, boolean ogfPrefix, int seed) throws IOException {
+		File file = tempDir.resolve(name).toFile();
+		try (Workbook workbook = new XSSFWorkbook()) {
+			Sheet sheet = workbook.createSheet("Products");
+			writeRow(sheet.createRow(0), "Title", "SKU", "Barcode", "Inventory Quantity", "Product Status");
+			int rowIdx = 1;
+			for (int i = 0; i < ROWS; i++) {
+				if ((i + seed) % 4 == 0) continue;
+				String sku = "SKU-" + i;
+				if (ogfPrefix && i % 3 != 0) sku = "OGF-" + sku;
+				String barcode = i % 17 == 0 ? "12" : "479" + (1000 + (i % 90 == 0 ? 0 : i));
+				writeRow(sheet.createRow(rowIdx++), "Product " + i, sku, barcode, String.valueOf((i * seed) % 9), i % 2 == 0 ? "active" : "draft");
+			}
+			save(workbook, file);
+		}
+		return file;
+	}
+
+	private File writePriceFile(String name, boolean ogfPrefix, int seed) throws IOException {
+		File file = tempDir.resolve(name).toFile();
+		try (Workbook workbook = new XSSFWorkbook()) {
+			Sheet sheet = workbook.createSheet("Products");
+			writeRow(sheet.createRow(0), "SKU", "Product Name", "Price", "Compare at price", "Available");
+			int rowIdx = 1;
+			for (int i = 0; i < ROWS; i++) {
+				if (seed > 0 && (i + seed) % 5 == 0) continue;
+				String sku = (ogfPrefix && i % 2 == 0 ? "OGF-" : "") + "SKU-" + i;
+				double price = 1000 + i * 10 + (seed > 0 && i % 7 == 0 ? seed * 25 : 0);
+				if (ogfPrefix) price = price * 1.2;
+				Row row = sheet.createRow(rowIdx++);
+				writeRow(row, sku, "Product " + i);
+				row.createCell(2).setCellValue(price);
+				if (i % 3 == 0) row.createCell(3).setCellValue(price * 1.1);
+				row.createCell(4).setCellValue((i + seed) % 12);
+			}
+			save(workbook, file);
+		}
+		return file;
+	}
+
+	private static void writeRow(Row row, String... values) {
+		for (int i = 0; i < values.length; i++) row.createCell(i).setCellValue(values[i]);
+	}
+
+	private static void save(Workbook workbook, File file) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			workbook.write(out);
+		}
+	}
+
+	private static String dump(File report) throws IOException {
+		DataFormatter formatter = new DataFormatter();
+		StringBuilder text = new StringBuilder();
+		try (FileInputStream in = new FileInputStream(report); Workbook workbook = new XSSFWorkbook(in)) {
+			for (Sheet sheet : workbook) {
+				text.append("## ").append(sheet.getSheetName()).append('\n');
+				for (Row row : sheet) {
+					for (Cell cell : row) text.append(formatter.formatCellValue(cell)).append('\t');
+					text.append('\n');
+				}
+			}
+		}
+		return text.toString();
+	}
+}
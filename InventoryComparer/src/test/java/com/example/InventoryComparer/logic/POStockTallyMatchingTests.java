@@ -0,0 +1,201 @@
+package com.example.InventoryComparer.logic;
+
+import com.example.InventoryComparer.logic.POStockTallyLogic.MatchState;
+import com.example.InventoryComparer.logic.POStockTallyLogic.PORecord;
+import com.example.InventoryComparer.logic.POStockTallyLogic.StockRecord;
+import com.example.InventoryComparer.logic.POStockTallyLogic.TallyRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class POStockTallyMatchingTests {
+
+	private static final String DATE = "2024-03-10";
+
+	// --- First pass: exact company code / date / SKU / barcode / quantity match ---
+
+	@Test
+	void exactMatchAssignsSharedBucketFirstComeFirstServed() {
+		List<TallyRecord> tally = tally(
+				List.of(po("PO-1", "OUT800", "SKU-1", "479001", DATE, 5),
+						po("PO-2", "OUT800", "SKU-1", "479001", DATE, 5),
+						po("PO-3", "OUT800", "SKU-1", "479001", DATE, 5)),
+				List.of(stock("SA-1", "OUT800", "SKU-1", "479001", DATE, -5),
+						stock("SA-2", "OUT800", "SKU-1", "479001", DATE, -5)));
+
+		assertMatched(tally.get(0), "SA-1", MatchState.TALLY);
+		assertMatched(tally.get(1), "SA-2", MatchState.TALLY);
+		assertEquals(MatchState.NO_STOCK_ADJUSTMENT, tally.get(2).state);
+		assertEquals("PO-1", tally.get(3).poNo);
+		assertEquals("PO-2", tally.get(4).poNo);
+	}
+
+	@Test
+	void exactMatchTreatsTwoEmptyBarcodesAsEqual() {
+		List<TallyRecord> tally = tally(
+				List.of(po("PO-1", "OUT800", "SKU-1", "", DATE, 5),
+						po("PO-2", "OUT800", "SKU-2", null, DATE, 3)),
+				List.of(stock("SA-1", "OUT800", "SKU-1", null, DATE, -5),
+						stock("SA-2", "OUT800", "SKU-2", "", DATE, -3)));
+
+		assertMatched(tally.get(0), "SA-1", MatchState.TALLY);
+		assertMatched(tally.get(1), "SA-2", MatchState.TALLY);
+	}
+
+	@Test
+	void exactMatchRequiresEqualBarcodes() {
+		// Same day, SKU and quantity but different barcodes: left to the second pass
+		List<TallyRecord> tally = tally(
+				List.of(po("PO-1", "OUT800", "SKU-1", "", DATE, 5)),
+				List.of(stock("SA-1", "OUT800", "SKU-1", "479001", DATE, -5)));
+
+		assertMatched(tally.get(0), "SA-1", MatchState.TALLY_SECOND_PASS);
+	}
+
+	@Test
+	void exactMatchComparesCompanyCodesCaseInsensitively() {
+		List<TallyRecord> tally = tally(
+				List.of(po("PO-1", "OUT800", "SKU-1", "479001", DATE, 5)),
+				List.of(stock("SA-1", "out800", "SKU-1", "479001", DATE, -5)));
+
+		assertMatched(tally.get(0), "SA-1", MatchState.TALLY);
+	}
+
+	@Test
+	void exactMatchLetsOut010PurchaseOrdersTakeAnEarlierOut600Adjustment() {
+		List<TallyRecord> out600First = tally(
+				List.of(po("PO-1", "OUT010", "SKU-1", "479001", DATE, 5)),
+				List.of(stock("SA-600", "OUT600", "SKU-1", "479001", DATE, -5),
+						stock("SA-010", "OUT010", "SKU-1", "479001", DATE, -5)));
+		assertMatched(out600First.get(0), "SA-600", MatchState.TALLY);
+
+		List<TallyRecord> out010First = tally(
+				List.of(po("PO-1", "OUT010", "SKU-1", "479001", DATE, 5)),
+				List.of(stock("SA-010", "OUT010", "SKU-1", "479001", DATE, -5),
+						stock("SA-600", "OUT600", "SKU-1", "479001", DATE, -5)));
+		assertMatched(out010First.get(0), "SA-010", MatchState.TALLY);
+	}
+
+	// --- Second pass: company code / SKU / quantity within a week (barcodes differ, so the first pass skips them) ---
+
+	@Test
+	void weekWindowIncludesDaySevenButNotDayEight() {
+		List<TallyRecord> tally = tally(
+				List.of(po("PO-1", "OUT800", "SKU-1", "", DATE, 5),
+						po("PO-2", "OUT800", "SKU-2", "", DATE, 5),
+						po("PO-3", "OUT800", "SKU-3", "", DATE, 5),
+						po("PO-4", "OUT800", "SKU-4", "", DATE, 5)),
+				List.of(stock("SA-1", "OUT800", "SKU-1", "479001", "2024-03-17", -5),
+						stock("SA-2", "OUT800", "SKU-2", "479002", "2024-03-18", -5),
+						stock("SA-3", "OUT800", "SKU-3", "479003", "2024-03-03", -5),
+						stock("SA-4", "OUT800", "SKU-4", "479004", "2024-03-02", -5)));
+
+		assertMatched(tally.get(0), "SA-1", MatchState.TALLY_SECOND_PASS);
+		assertEquals(MatchState.NO_STOCK_ADJUSTMENT, tally.get(1).state);
+		assertMatched(tally.get(2), "SA-3", MatchState.TALLY_SECOND_PASS);
+		assertEquals(MatchState.NO_STOCK_ADJUSTMENT, tally.get(3).state);
+		assertEquals(MatchState.NO_PURCHASE_ORDER, tally.get(5).state);
+		assertEquals(MatchState.NO_PURCHASE_ORDER, tally.get(7).state);
+	}
+
+	@Test
+	void weekWindowNeverMatchesUnparseableDates() {
+		List<TallyRecord> tally = tally(
+				List.of(po("PO-1", "OUT800", "SKU-1", "", "10/03/2024", 5),
+						po("PO-2", "OUT800", "SKU-2", "", DATE, 5),
+						po("PO-3", "OUT800", "SKU-3", "", "", 5)),
+				List.of(stock("SA-1", "OUT800", "SKU-1", "479001", "10/03/2024", -5),
+						stock("SA-2", "OUT800", "SKU-2", "479002", "not a date", -5),
+						stock("SA-3", "OUT800", "SKU-3", "479003", DATE, -5)));
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(MatchState.NO_STOCK_ADJUSTMENT, tally.get(i).state);
+			assertEquals(MatchState.NO_PURCHASE_ORDER, tally.get(3 + i).state);
+		}
+	}
+
+	@Test
+	void weekWindowPrefersEarliestStockListPositionOverEarliestDate() {
+		List<TallyRecord> tally = tally(
+				List.of(po("PO-1", "OUT800", "SKU-1", "", DATE, 5)),
+				List.of(stock("SA-LATER", "OUT800", "SKU-1", "479001", "2024-03-15", -5),
+						stock("SA-EARLIER", "OUT800", "SKU-1", "479001", "2024-03-09", -5)));
+
+		assertMatched(tally.get(0), "SA-LATER", MatchState.TALLY_SECOND_PASS);
+		assertEquals(MatchState.NO_PURCHASE_ORDER, tally.get(2).state);
+	}
+
+	@Test
+	void weekWindowLetsOut010PurchaseOrdersTakeAnEarlierOut600Adjustment() {
+		List<TallyRecord> out600First = tally(
+				List.of(po("PO-1", "OUT010", "SKU-1", "", DATE, 5)),
+				List.of(stock("SA-600", "OUT600", "SKU-1", "479001", "2024-03-14", -5),
+						stock("SA-010", "OUT010", "SKU-1", "479001", DATE, -5)));
+		assertMatched(out600First.get(0), "SA-600", MatchState.TALLY_SECOND_PASS);
+
+		List<TallyRecord> out010First = tally(
+				List.of(po("PO-1", "OUT010", "SKU-1", "", DATE, 5)),
+				List.of(stock("SA-010", "OUT010", "SKU-1", "479001", "2024-03-14", -5),
+						stock("SA-600", "OUT600", "SKU-1", "479001", DATE, -5)));
+		assertMatched(out010First.get(0), "SA-010", MatchState.TALLY_SECOND_PASS);
+	}
+
+	// --- Third pass: stock adjustments reversed within the same file (same SKU, date and opposite quantity) ---
+
+	@Test
+	void reversalsPairEachRowWithTheFirstLaterOpposite() {
+		assertReversalStates(List.of(reversal(5), reversal(5), reversal(-5), reversal(-5)),
+				MatchState.TALLY_THIRD_PASS, MatchState.TALLY_THIRD_PASS, MatchState.TALLY_THIRD_PASS, MatchState.TALLY_THIRD_PASS);
+
+		assertReversalStates(List.of(reversal(-5), reversal(5), reversal(5)),
+				MatchState.TALLY_THIRD_PASS, MatchState.TALLY_THIRD_PASS, MatchState.NO_PURCHASE_ORDER);
+	}
+
+	@Test
+	void reversalsPairZeroQuantitiesWithEachOther() {
+		assertReversalStates(List.of(reversal(0), reversal(5), reversal(0), reversal(0)),
+				MatchState.TALLY_THIRD_PASS, MatchState.NO_PURCHASE_ORDER, MatchState.TALLY_THIRD_PASS, MatchState.NO_PURCHASE_ORDER);
+	}
+
+	@Test
+	void reversalsNeverPairRowsFromDifferentFiles() {
+		assertReversalStates(List.of(reversal(5, "SA_A.xlsx"), reversal(-5, "SA_B.xlsx"), reversal(-5, "SA_A.xlsx")),
+				MatchState.TALLY_THIRD_PASS, MatchState.NO_PURCHASE_ORDER, MatchState.TALLY_THIRD_PASS);
+	}
+
+	private static void assertReversalStates(List<StockRecord> stockAdjustments, MatchState... expected) {
+		List<TallyRecord> tally = tally(List.of(), stockAdjustments);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], tally.get(i).state, "stock row " + i);
+		}
+	}
+
+	private static StockRecord reversal(int adjustment) {
+		return reversal(adjustment, "SA_OUT800.xlsx");
+	}
+
+	private static StockRecord reversal(int adjustment, String sourceFile) {
+		return new StockRecord("SKU-1", "479001", DATE, "Correction", adjustment, "Company OUT800", "SA-" + adjustment,
+				"OUT800", sourceFile);
+	}
+
+	private static void assertMatched(TallyRecord po, String saId, MatchState state) {
+		assertEquals(state, po.state);
+		assertEquals(saId, po.saId);
+	}
+
+	private static List<TallyRecord> tally(List<PORecord> purchaseOrders, List<StockRecord> stockAdjustments) {
+		return POStockTallyLogic.generateTallyRecords(purchaseOrders, stockAdjustments);
+	}
+
+	private static PORecord po(String poNo, String supplierCode, String sku, String barcode, String date, int quantity) {
+		return new PORecord(poNo, supplierCode, "Product " + sku, sku, barcode, date, quantity, "Main Shop");
+	}
+
+	private static StockRecord stock(String saId, String companyCode, String sku, String barcode, String date, int adjustment) {
+		return new StockRecord(sku, barcode, date, "Received", adjustment, "Company " + companyCode, saId,
+				companyCode, "SA_" + companyCode + ".xlsx");
+	}
+}
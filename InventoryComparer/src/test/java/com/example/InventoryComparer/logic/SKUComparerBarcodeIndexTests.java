@@ -0,0 +1,66 @@
+package com.example.InventoryComparer.logic;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SKUComparerBarcodeIndexTests {
+
+	private static final int ROWS = 2_000;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void barcodeOnlyRowsMergeByBarcode() throws IOException {
+		// Kandy overlaps the second half of Colombo's barcodes and adds as many new ones
+		File first = writeBarcodeOnlyFile(tempDir.resolve("Colombo.xlsx").toFile(), "479", 1);
+		File second = writeBarcodeOnlyFile(tempDir.resolve("Kandy.xlsx").toFile(), "479", ROWS / 2 + 1);
+
+		List<File> locationFiles = List.of(first, second);
+		var parsedFiles = SKUComparerLogic.parseInputFiles(locationFiles, List.of());
+		SKUComparerLogic.ConsolidatedItems consolidated = SKUComparerLogic.mergeParsedFiles(locationFiles, List.of(), parsedFiles);
+
+		assertEquals(0, consolidated.bySku.size());
+		assertEquals(ROWS + ROWS / 2, consolidated.withNoSku.size());
+		assertEquals(ROWS / 2, consolidated.withNoSku.stream().filter(item -> item.sourceData.size() == 2).count());
+		assertTrue(consolidated.withNoSku.stream().allMatch(item -> {
+			long number = Long.parseLong(item.primaryBarcode.substring(3));
+			boolean shared = number > ROWS / 2 && number <= ROWS;
+			return item.sourceData.size() == (shared ? 2 : 1);
+		}));
+	}
+
+	private static File writeBarcodeOnlyFile(File file, String prefix, int firstNumber) throws IOException {
+		try (SXSSFWorkbook workbook = new SXSSFWorkbook(100)) {
+			Sheet sheet = workbook.createSheet("Products");
+			Row header = sheet.createRow(0);
+			header.createCell(0).setCellValue("Title");
+			header.createCell(1).setCellValue("Barcode");
+			header.createCell(2).setCellValue("Inventory Quantity");
+			for (int i = 1; i <= ROWS; i++) {
+				int number = firstNumber + i - 1;
+				Row row = sheet.createRow(i);
+				row.createCell(0).setCellValue("Product " + number);
+				row.createCell(1).setCellValue(prefix + String.format("%010d", number));
+				row.createCell(2).setCellValue(number % 20);
+			}
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				workbook.write(out);
+			}
+			workbook.dispose();
+		}
+		return file;
+	}
+}